@@ -1,15 +1,20 @@
 package com.hmall.cart;
 
 import com.hmall.api.config.DefaultFeignConfig;
+import com.hmall.common.config.MqConfig;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.openfeign.EnableFeignClients;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.client.RestTemplate;
 
 @EnableFeignClients(basePackages = "com.hmall.api.clients", defaultConfiguration = DefaultFeignConfig.class)
 @MapperScan("com.hmall.cart.mapper")
+@Import(MqConfig.class)
+@EnableScheduling
 @SpringBootApplication
 public class CartApplication {
     public static void main(String[] args) {
@@ -0,0 +1,339 @@
+package com.hmall.cart.cache;
+
+import cn.hutool.core.util.RandomUtil;
+import com.hmall.cart.domain.vo.CartVO;
+import com.hmall.common.cache.CacheClient;
+import com.hmall.common.cache.CacheCodec;
+import com.hmall.common.cache.CacheSpec;
+import com.hmall.common.utils.CollUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static com.hmall.common.utils.RedisConstants.CART_COUNT_KEY;
+import static com.hmall.common.utils.RedisConstants.CART_FILL_KEY;
+import static com.hmall.common.utils.RedisConstants.CART_KEY;
+
+/**
+ * 每个用户的购物车缓存，存为redis的hash：key为 cart:{userId}，每个商品一个field，field为商品id，值为编码后的 {@link CartVO}
+ * <p>
+ * 查询时整个hash未缓存才查库重建；增删改只修改对应的field，并且只在hash已经存在时修改，
+ * 避免把不完整的购物车当成完整的缓存。每次修改都会刷新有效期
+ * <p>
+ * hash中固定有一个 {@link #LOADED_FIELD}，用来区分空购物车和未缓存
+ * <p>
+ * 未缓存时先在 cart:fill:{userId} 写入本次查库的令牌，查库后令牌未变才写入缓存。
+ * 修改在提交后删除令牌，让提交前查库、提交后才写缓存的旧数据无法写入
+ * <p>
+ * 另外缓存每个用户购物车中的商品数，用于在加入购物车时判断是否超过上限，不需要每次都COUNT
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CartCache {
+
+    /**
+     * 缓存区域名，有效期在 hm.cache.specs.cart 中配置
+     */
+    public static final String REGION = "cart";
+    public static final String LOADED_FIELD = "_";
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * 查库写入缓存的令牌有效期，查库超过这个时间的结果不写入缓存
+     */
+    private static final Duration FILL_LEASE = Duration.ofSeconds(10);
+
+    /**
+     * 令牌未变且hash不存在时才整体写入，KEYS[1]为hash的key，KEYS[2]为令牌的key，
+     * ARGV[1]为有效期(毫秒)，ARGV[2]为令牌，之后依次为field、值
+     */
+    private static final DefaultRedisScript<Long> FILL_IF_ABSENT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[2]) ~= ARGV[2] then return 0 end " +
+            "redis.call('del', KEYS[2]) " +
+            "if redis.call('exists', KEYS[1]) == 1 then return 0 end " +
+            "for i = 3, #ARGV, 2 do redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1]) end " +
+            "redis.call('pexpire', KEYS[1], ARGV[1]) " +
+            "return 1", Long.class);
+
+    /**
+     * hash存在时才写入field并刷新有效期，不存在时删除令牌，KEYS[1]为hash的key，KEYS[2]为令牌的key，
+     * ARGV[1]为有效期(毫秒)，之后依次为field、值
+     */
+    private static final DefaultRedisScript<Long> PUT_IF_CACHED_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 0 then redis.call('del', KEYS[2]) return 0 end " +
+            "for i = 2, #ARGV, 2 do redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1]) end " +
+            "redis.call('pexpire', KEYS[1], ARGV[1]) " +
+            "return 1", Long.class);
+
+    /**
+     * 购物车商品数未达上限时占用一个名额，KEYS[1]为计数的key，ARGV[1]为上限，ARGV[2]为有效期(毫秒)
+     * 返回 -1 计数未缓存；0 已达上限；1 占用成功
+     */
+    private static final DefaultRedisScript<Long> RESERVE_SCRIPT = new DefaultRedisScript<>(
+            "local n = redis.call('get', KEYS[1]) " +
+            "if not n then return -1 end " +
+            "if tonumber(n) >= tonumber(ARGV[1]) then return 0 end " +
+            "redis.call('incr', KEYS[1]) " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]) " +
+            "return 1", Long.class);
+
+    /**
+     * 计数存在时才减少，避免减出负数，KEYS[1]为计数的key，ARGV[1]为减少的数量
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 0 then return 0 end " +
+            "return redis.call('decrby', KEYS[1], ARGV[1])", Long.class);
+
+    /**
+     * 乐观锁修改数量的最大重试次数，仍然冲突就删除整个购物车缓存
+     */
+    private static final int MAX_CAS_RETRIES = 3;
+
+    private final RedisTemplate<String, byte[]> cacheRedisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheCodec cacheCodec;
+    private final CacheClient cacheClient;
+
+    private CacheSpec spec;
+
+    @PostConstruct
+    public void init() {
+        spec = cacheClient.spec(REGION, new CacheSpec().setTtl(Duration.ofMinutes(60)));
+    }
+
+    /**
+     * 查询用户的购物车，未缓存时通过loader查库并整体写入
+     * @return 按购物车条目id排序
+     */
+    public List<CartVO> get(Long userId, Supplier<List<CartVO>> loader) {
+        String key = CART_KEY + userId;
+        // 1.查缓存
+        Map<Object, Object> entries = cacheRedisTemplate.opsForHash().entries(key);
+        if (entries.containsKey(LOADED_FIELD)) {
+            List<CartVO> carts = new ArrayList<>(entries.size());
+            boolean broken = false;
+            for (Map.Entry<Object, Object> e : entries.entrySet()) {
+                if (LOADED_FIELD.equals(e.getKey())) {
+                    continue;
+                }
+                CartVO cart = cacheCodec.decode((byte[]) e.getValue(), CartVO.class);
+                if (cart == null) {
+                    broken = true;
+                    break;
+                }
+                carts.add(cart);
+            }
+            // 有无法解码的条目时丢弃整个缓存，重新查库
+            if (!broken) {
+                carts.sort(Comparator.comparing(CartVO::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+                return carts;
+            }
+        }
+        // 2.未缓存，写入令牌后查库，令牌未被修改删除时才整体写入
+        String token = UUID.randomUUID().toString();
+        stringRedisTemplate.opsForValue().set(CART_FILL_KEY + userId, token, FILL_LEASE);
+        List<CartVO> carts = loader.get();
+        fill(userId, token, carts);
+        return carts;
+    }
+
+    /**
+     * 新增或修改购物车条目，事务提交后执行
+     */
+    public void put(Long userId, Collection<CartVO> carts) {
+        if (CollUtils.isEmpty(carts)) {
+            return;
+        }
+        List<CartVO> list = new ArrayList<>(carts);
+        afterCommit(userId, () -> {
+            List<byte[]> args = new ArrayList<>(list.size() * 2 + 1);
+            args.add(String.valueOf(ttlMillis()).getBytes(StandardCharsets.UTF_8));
+            for (CartVO cart : list) {
+                args.add(field(cart.getItemId()));
+                args.add(cacheCodec.encode(cart));
+            }
+            cacheRedisTemplate.execute(PUT_IF_CACHED_SCRIPT, Arrays.asList(CART_KEY + userId, CART_FILL_KEY + userId),
+                    args.toArray());
+        });
+    }
+
+    /**
+     * 累加购物车中某个商品的数量，事务提交后执行
+     * <p>
+     * 值是编码后的整体，redis无法直接累加，用WATCH乐观锁读出、修改、写回，并发修改同一个用户的购物车时重试
+     */
+    public void incrementNum(Long userId, Long itemId, int delta) {
+        afterCommit(userId, () -> {
+            String key = CART_KEY + userId;
+            IncrementNumCallback callback = new IncrementNumCallback(key, CART_FILL_KEY + userId, String.valueOf(itemId), delta);
+            for (int i = 0; i < MAX_CAS_RETRIES; i++) {
+                if (Boolean.TRUE.equals(cacheRedisTemplate.execute(callback))) {
+                    return;
+                }
+            }
+            log.warn("修改购物车缓存冲突次数过多，删除缓存，userId：{}", userId);
+            cacheRedisTemplate.delete(key);
+        });
+    }
+
+    /**
+     * 占用一个购物车商品名额，每个用户的商品数缓存在 cart:count:{userId}
+     * @param max 购物车商品数上限
+     * @param dbCounter 计数未缓存时从数据库统计当前的商品数
+     * @return 已达上限时返回false
+     */
+    public boolean tryReserve(Long userId, int max, LongSupplier dbCounter) {
+        String key = CART_COUNT_KEY + userId;
+        String ttl = String.valueOf(ttlMillis());
+        Long result = stringRedisTemplate.execute(RESERVE_SCRIPT, Collections.singletonList(key), String.valueOf(max), ttl);
+        if (result != null && result < 0) {
+            // 计数未缓存，从数据库统计后写入；并发写入时以先写入的为准
+            stringRedisTemplate.opsForValue().setIfAbsent(key, String.valueOf(dbCounter.getAsLong()),
+                    Duration.ofMillis(ttlMillis()));
+            result = stringRedisTemplate.execute(RESERVE_SCRIPT, Collections.singletonList(key), String.valueOf(max), ttl);
+        }
+        return result != null && result > 0;
+    }
+
+    /**
+     * 归还购物车商品名额：占用后实际并没有新增条目，或者删除了条目。事务提交后执行
+     */
+    public void release(Long userId, int count) {
+        if (count <= 0) {
+            return;
+        }
+        runAfterCommit(() -> {
+            try {
+                stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(CART_COUNT_KEY + userId), String.valueOf(count));
+            } catch (Exception e) {
+                // 计数偏大会让用户提前达到上限，删除后下次重新统计
+                log.error("归还购物车商品名额失败，userId：{}", userId, e);
+                stringRedisTemplate.delete(CART_COUNT_KEY + userId);
+            }
+        });
+    }
+
+    /**
+     * 删除购物车中的商品，事务提交后执行
+     */
+    public void remove(Long userId, Collection<Long> itemIds) {
+        if (CollUtils.isEmpty(itemIds)) {
+            return;
+        }
+        Object[] fields = itemIds.stream().map(String::valueOf).toArray();
+        afterCommit(userId, () -> {
+            stringRedisTemplate.delete(CART_FILL_KEY + userId);
+            cacheRedisTemplate.opsForHash().delete(CART_KEY + userId, fields);
+        });
+    }
+
+    /**
+     * 删除整个购物车缓存和商品数计数，下次使用时重建，事务提交后执行
+     */
+    public void evict(Long userId) {
+        afterCommit(userId, () -> cacheRedisTemplate.delete(
+                Arrays.asList(CART_FILL_KEY + userId, CART_KEY + userId, CART_COUNT_KEY + userId)));
+    }
+
+    private void fill(Long userId, String token, List<CartVO> carts) {
+        List<byte[]> args = new ArrayList<>(carts.size() * 2 + 4);
+        args.add(String.valueOf(ttlMillis()).getBytes(StandardCharsets.UTF_8));
+        args.add(token.getBytes(StandardCharsets.UTF_8));
+        args.add(LOADED_FIELD.getBytes(StandardCharsets.UTF_8));
+        args.add(EMPTY);
+        for (CartVO cart : carts) {
+            args.add(field(cart.getItemId()));
+            args.add(cacheCodec.encode(cart));
+        }
+        cacheRedisTemplate.execute(FILL_IF_ABSENT_SCRIPT, Arrays.asList(CART_KEY + userId, CART_FILL_KEY + userId),
+                args.toArray());
+    }
+
+    private long ttlMillis() {
+        long ttl = spec.getTtl().toMillis();
+        return ttl + RandomUtil.randomLong((long) (ttl * spec.getTtlJitter()) + 1);
+    }
+
+    /**
+     * 读出hash中的一个商品，修改数量后在事务中写回，WATCH的key被修改过时事务不执行，返回false
+     */
+    @RequiredArgsConstructor
+    private class IncrementNumCallback implements SessionCallback<Boolean> {
+        private final String key;
+        private final String fillKey;
+        private final String field;
+        private final int delta;
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public Boolean execute(RedisOperations operations) {
+            RedisOperations<String, byte[]> ops = operations;
+            ops.watch(key);
+            CartVO cart = cacheCodec.decode((byte[]) ops.opsForHash().get(key, field), CartVO.class);
+            if (cart == null) {
+                ops.unwatch();
+                // 没有缓存时删除令牌，让正在查库的旧数据无法写入；缓存了但没有这个商品或无法解码，说明缓存不完整，整体删除
+                ops.delete(Arrays.asList(key, fillKey));
+                return true;
+            }
+            cart.setNum(cart.getNum() + delta);
+            ops.multi();
+            ops.opsForHash().put(key, field, cacheCodec.encode(cart));
+            ops.expire(key, ttlMillis(), TimeUnit.MILLISECONDS);
+            return CollUtils.isNotEmpty(ops.exec());
+        }
+    }
+
+    private static byte[] field(Long itemId) {
+        return String.valueOf(itemId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 有事务时在提交后执行，避免并发读在提交前把旧数据写回；
+     * 缓存操作失败不影响业务，再尝试删除整个购物车缓存，避免留下旧数据
+     */
+    private void afterCommit(Long userId, Runnable action) {
+        Runnable safe = () -> {
+            try {
+                action.run();
+            } catch (Exception e) {
+                log.error("更新购物车缓存失败，userId：{}", userId, e);
+                try {
+                    cacheRedisTemplate.delete(Arrays.asList(CART_FILL_KEY + userId, CART_KEY + userId));
+                } catch (Exception ignored) {
+                    // redis不可用时只能等缓存过期
+                }
+            }
+        };
+        runAfterCommit(safe);
+    }
+
+    private static void runAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,95 @@
+package com.hmall.cart.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.api.dto.ItemSnapshotDTO;
+import com.hmall.cart.config.CartProperties;
+import com.hmall.common.utils.CollUtils;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 购物车用到的商品价格、状态、库存的本地快照，由商品服务发布的变更消息维护
+ * <p>
+ * 查询时先查本地，本地没有的商品才远程查询并放入快照；
+ * 变更消息带有商品服务统一分配的递增版本，版本更旧的快照不会覆盖更新的，避免消息乱序。
+ * 远程查询可能读到商品服务缓存中的旧数据，以最低版本放入，任何变更消息都会覆盖它。
+ * 快照写入后定时过期，漏收消息(如断线期间)时最多过期后重新远程查询
+ */
+@Component
+@RequiredArgsConstructor
+public class ItemSnapshotCache {
+
+    /**
+     * 远程查询结果的版本，低于任何变更消息
+     */
+    private static final long REMOTE_VERSION = 0L;
+
+    private final CartProperties cartProperties;
+
+    private Cache<Long, ItemSnapshotDTO> snapshots;
+
+    @PostConstruct
+    public void init() {
+        snapshots = Caffeine.newBuilder()
+                .maximumSize(cartProperties.getItemSnapshotMaximumSize())
+                .expireAfterWrite(cartProperties.getItemSnapshotTtl())
+                .build();
+    }
+
+    /**
+     * 查询商品快照，本地没有的通过loader远程查询并放入快照
+     * @param ids 商品id集合
+     * @param loader 根据本地没有的id远程批量查询商品
+     * @return id -> 快照，远程也查不到的商品不在结果中
+     */
+    public Map<Long, ItemSnapshotDTO> getAll(Collection<Long> ids, Function<List<Long>, List<ItemDTO>> loader) {
+        // 1.查本地
+        Map<Long, ItemSnapshotDTO> result = new HashMap<>(snapshots.getAllPresent(ids));
+        List<Long> missIds = ids.stream().filter(id -> !result.containsKey(id)).distinct().collect(Collectors.toList());
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 2.远程查询
+        List<ItemDTO> items = loader.apply(missIds);
+        if (CollUtils.isEmpty(items)) {
+            return result;
+        }
+        // 3.放入快照，期间已收到变更消息时以消息为准
+        for (ItemDTO item : items) {
+            ItemSnapshotDTO snapshot = new ItemSnapshotDTO();
+            snapshot.setId(item.getId());
+            snapshot.setPrice(item.getPrice());
+            snapshot.setStatus(item.getStatus());
+            snapshot.setStock(item.getStock());
+            snapshot.setVersion(REMOTE_VERSION);
+            result.put(item.getId(), put(snapshot));
+        }
+        return result;
+    }
+
+    /**
+     * 应用商品服务发布的变更
+     */
+    public void putAll(Collection<ItemSnapshotDTO> changes) {
+        if (CollUtils.isEmpty(changes)) {
+            return;
+        }
+        changes.forEach(this::put);
+    }
+
+    /**
+     * 版本不比已有的旧时才写入
+     * @return 写入后的快照
+     */
+    private ItemSnapshotDTO put(ItemSnapshotDTO snapshot) {
+        return snapshots.asMap().merge(snapshot.getId(), snapshot,
+                (old, cur) -> cur.getVersion() >= old.getVersion() ? cur : old);
+    }
+}
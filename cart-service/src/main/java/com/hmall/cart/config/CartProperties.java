@@ -4,9 +4,47 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
 @Data
 @Component
 @ConfigurationProperties(prefix = "hm.cart")
 public class CartProperties {
     private Integer maxAmount;
+    /**
+     * 购物车的存储方式：db 数据库为准，redis只做缓存；redis 以redis为准，异步合并写回数据库
+     */
+    private String storage = "db";
+    /**
+     * redis模式下，把有变更的购物车写回数据库的间隔
+     */
+    private Long flushIntervalMillis = 1000L;
+    /**
+     * redis模式下，每批写回的用户数
+     */
+    private Integer flushBatchSize = 200;
+    /**
+     * redis模式下，写回任务分布式锁的有效期
+     */
+    private Duration flushLockTtl = Duration.ofSeconds(30);
+    /**
+     * redis模式下，一个用户的购物车连续写回失败多少次后不再重试，移入 cart:dirty:failed 等待人工处理
+     */
+    private Integer flushMaxAttempts = 10;
+    /**
+     * redis模式下购物车在redis中的有效期，每次修改后刷新，过期后从数据库重建
+     */
+    private Duration redisTtl = Duration.ofDays(7);
+    /**
+     * 未登录用户(按设备标识)的购物车在redis中的有效期，每次修改后刷新
+     */
+    private Duration guestTtl = Duration.ofDays(7);
+    /**
+     * 本地商品快照(价格、状态、库存)最多保存的商品数
+     */
+    private Long itemSnapshotMaximumSize = 100000L;
+    /**
+     * 本地商品快照的有效期，漏收变更消息时最多这么久后重新远程查询
+     */
+    private Duration itemSnapshotTtl = Duration.ofMinutes(10);
 }
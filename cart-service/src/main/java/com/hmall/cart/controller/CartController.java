@@ -2,6 +2,7 @@ package com.hmall.cart.controller;
 
 
 import com.hmall.cart.domain.dto.CartFormDTO;
+import com.hmall.cart.domain.dto.CartOperationDTO;
 import com.hmall.cart.domain.po.Cart;
 import com.hmall.cart.domain.vo.CartVO;
 import com.hmall.cart.service.ICartService;
@@ -10,44 +11,39 @@ import io.swagger.annotations.ApiImplicitParam;
 import io.swagger.annotations.ApiOperation;
 import lombok.RequiredArgsConstructor;
 import org.apache.ibatis.annotations.Param;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
 import java.util.List;
 
-import static com.hmall.common.utils.RedisConstants.CART_ID_KEY;
-import static com.hmall.common.utils.RedisConstants.ITEM_ID;
-
 @Api(tags = "购物车相关接口")
 @RestController
 @RequestMapping("/carts")
 @RequiredArgsConstructor
 public class CartController {
     private final ICartService cartService;
-    private final StringRedisTemplate stringRedisTemplate;
     @ApiOperation("添加商品到购物车")
     @PostMapping
     public void addItem2Cart(@Valid @RequestBody CartFormDTO cartFormDTO){
         cartService.addItem2Cart(cartFormDTO);
-        //使缓存失效
-        stringRedisTemplate.delete(CART_ID_KEY);
     }
 
     @ApiOperation("更新购物车数据")
     @PutMapping
     public void updateCart(@RequestBody Cart cart){
-        cartService.updateById(cart);
-        //使缓存失效
-        stringRedisTemplate.delete(CART_ID_KEY);
+        cartService.updateCart(cart);
     }
 
     @ApiOperation("删除购物车中商品")
     @DeleteMapping("{id}")
     public void deleteCartItem(@Param ("购物车条目id")@PathVariable("id") Long id){
-        cartService.removeById(id);
-        //使缓存失效
-        stringRedisTemplate.delete(CART_ID_KEY);
+        cartService.removeCartItem(id);
+    }
+
+    @ApiOperation("批量加入、修改数量、删除购物车中商品，返回修改后的购物车")
+    @PatchMapping("/batch")
+    public List<CartVO> batchUpdateCarts(@RequestBody List<CartOperationDTO> operations){
+        return cartService.batchUpdateCarts(operations);
     }
 
     @ApiOperation("查询购物车列表")
@@ -55,16 +51,15 @@ public class CartController {
     public List<CartVO> queryMyCarts(){
         return cartService.queryMyCarts();
     }
+    @ApiOperation("登录后合并未登录时的购物车")
+    @PostMapping("/merge")
+    public void mergeGuestCart(@RequestHeader("device-token") String deviceToken){
+        cartService.mergeGuestCart(deviceToken);
+    }
     @ApiOperation("批量删除购物车中商品")
     @ApiImplicitParam(name = "ids", value = "购物车条目id集合")
     @DeleteMapping
     public void deleteCartItemByIds(@RequestParam("ids") List<Long> ids){
         cartService.removeByItemIds(ids);
-        //使购物车缓存失效
-        stringRedisTemplate.delete(CART_ID_KEY);
-        //删除对应商品缓存
-        for(Long id : ids){
-            stringRedisTemplate.delete(ITEM_ID+id);
-        }
     }
 }
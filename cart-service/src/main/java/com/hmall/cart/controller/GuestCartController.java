@@ -0,0 +1,53 @@
+package com.hmall.cart.controller;
+
+
+import com.hmall.cart.domain.dto.CartFormDTO;
+import com.hmall.cart.domain.po.Cart;
+import com.hmall.cart.domain.vo.CartVO;
+import com.hmall.cart.service.ICartService;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiImplicitParam;
+import io.swagger.annotations.ApiOperation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.*;
+
+import javax.validation.Valid;
+import java.util.List;
+
+/**
+ * 未登录用户的购物车，用请求头 device-token 中前端生成的设备标识区分，网关不校验登录
+ */
+@Api(tags = "未登录购物车相关接口")
+@RestController
+@RequestMapping("/carts/guest")
+@RequiredArgsConstructor
+public class GuestCartController {
+    private final ICartService cartService;
+
+    @ApiOperation("未登录时添加商品到购物车")
+    @PostMapping
+    public void addItem2Cart(@RequestHeader("device-token") String deviceToken,
+                             @Valid @RequestBody CartFormDTO cartFormDTO){
+        cartService.addItem2GuestCart(deviceToken, cartFormDTO);
+    }
+
+    @ApiOperation("未登录时按商品id更新购物车数据")
+    @PutMapping
+    public void updateCart(@RequestHeader("device-token") String deviceToken, @RequestBody Cart cart){
+        cartService.updateGuestCart(deviceToken, cart);
+    }
+
+    @ApiOperation("未登录时查询购物车列表")
+    @GetMapping
+    public List<CartVO> queryCarts(@RequestHeader("device-token") String deviceToken){
+        return cartService.queryGuestCarts(deviceToken);
+    }
+
+    @ApiOperation("未登录时批量删除购物车中商品")
+    @ApiImplicitParam(name = "ids", value = "商品id集合")
+    @DeleteMapping
+    public void deleteCartItemByIds(@RequestHeader("device-token") String deviceToken,
+                                    @RequestParam("ids") List<Long> ids){
+        cartService.removeGuestCartItems(deviceToken, ids);
+    }
+}
@@ -0,0 +1,30 @@
+package com.hmall.cart.domain.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+@Data
+@ApiModel(description = "批量修改购物车中的一项操作")
+public class CartOperationDTO {
+    @ApiModelProperty(value = "操作类型：ADD 加入购物车，已存在时累加数量；UPDATE 按条目id修改数量；DELETE 按条目id删除", required = true)
+    private Type type;
+    @ApiModelProperty("购物车条目id，UPDATE、DELETE时必填")
+    private Long id;
+    @ApiModelProperty("商品id，ADD时必填")
+    private Long itemId;
+    @ApiModelProperty("购买数量，UPDATE时必填，ADD时默认为1")
+    private Integer num;
+    @ApiModelProperty("商品标题")
+    private String name;
+    @ApiModelProperty("商品动态属性键值集")
+    private String spec;
+    @ApiModelProperty("价格,单位：分")
+    private Integer price;
+    @ApiModelProperty("商品图片")
+    private String image;
+
+    public enum Type {
+        ADD, UPDATE, DELETE
+    }
+}
@@ -14,6 +14,8 @@ import java.time.LocalDateTime;
  * <p>
  * 订单详情表
  * </p>
+ * 同一用户的同一商品只有一个条目，加入购物车时依赖 (user_id, item_id) 唯一索引做upsert，
+ * 索引及合并已有重复数据的脚本见 db/cart_uk_user_item.sql
  *
  * @author 虎哥
  * @since 2023-05-05
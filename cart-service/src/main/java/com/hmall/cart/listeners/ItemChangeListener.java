@@ -0,0 +1,39 @@
+package com.hmall.cart.listeners;
+
+import com.hmall.api.dto.ItemSnapshotDTO;
+import com.hmall.cart.cache.ItemSnapshotCache;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static com.hmall.common.utils.MqConstants.ITEM_CHANGE_KEY;
+import static com.hmall.common.utils.MqConstants.ITEM_EXCHANGE;
+
+/**
+ * 监听商品变更消息，更新本地商品快照
+ * <p>
+ * 每个节点都要收到全部消息，所以队列不指定名称，由各节点各自创建匿名队列(排他、自动删除)，节点下线后队列随之删除
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ItemChangeListener {
+    private final ItemSnapshotCache itemSnapshotCache;
+
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue,
+            exchange = @Exchange(name = ITEM_EXCHANGE, type = ExchangeTypes.TOPIC),
+            key = ITEM_CHANGE_KEY
+    ))
+    public void listenItemChange(List<ItemSnapshotDTO> changes) {
+        log.debug("收到商品变更消息，数量：{}", changes.size());
+        itemSnapshotCache.putAll(changes);
+    }
+}
@@ -3,9 +3,14 @@ package com.hmall.cart.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.hmall.cart.domain.po.Cart;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 
+import java.util.List;
+
 /**
  * <p>
  * 订单详情表 Mapper 接口
@@ -16,6 +21,53 @@ import org.apache.ibatis.annotations.Update;
  */
 public interface CartMapper extends BaseMapper<Cart> {
 
-    @Update("UPDATE cart SET num = num + 1 WHERE user_id = #{userId} AND item_id = #{itemId}")
-    void updateNum(@Param("itemId") Long itemId, @Param("userId") Long userId);
+    /**
+     * 商品不在购物车中则新增，已存在则累加数量，依赖 (user_id, item_id) 唯一索引
+     * <p>
+     * 已存在时通过 LAST_INSERT_ID(id) 把原条目的id回填到cart中
+     * @return 1 新增；2 累加了数量(MySQL对更新的行计为2)
+     */
+    @Insert("INSERT INTO cart (user_id, item_id, num, name, spec, price, image) " +
+            "VALUES (#{userId}, #{itemId}, #{num}, #{name}, #{spec}, #{price}, #{image}) " +
+            "ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id), num = num + VALUES(num)")
+    @Options(useGeneratedKeys = true, keyProperty = "id")
+    int upsert(Cart cart);
+
+    /**
+     * 按id批量写入完整的购物车条目，已存在的覆盖数量和商品信息，用于redis模式下写回数据库
+     */
+    @Insert("<script>INSERT INTO cart (id, user_id, item_id, num, name, spec, price, image, create_time) VALUES " +
+            "<foreach collection='carts' item='c' separator=','>" +
+            "(#{c.id}, #{c.userId}, #{c.itemId}, #{c.num}, #{c.name}, #{c.spec}, #{c.price}, #{c.image}, IFNULL(#{c.createTime}, NOW()))" +
+            "</foreach> ON DUPLICATE KEY UPDATE " +
+            "num = VALUES(num), name = VALUES(name), spec = VALUES(spec), price = VALUES(price), image = VALUES(image)" +
+            "</script>")
+    int upsertBatch(@Param("carts") List<Cart> carts);
+
+    /**
+     * 批量合并购物车条目：不在购物车中的新增，已存在的累加数量，依赖 (user_id, item_id) 唯一索引
+     */
+    @Insert("<script>INSERT INTO cart (user_id, item_id, num, name, spec, price, image) VALUES " +
+            "<foreach collection='carts' item='c' separator=','>" +
+            "(#{c.userId}, #{c.itemId}, #{c.num}, #{c.name}, #{c.spec}, #{c.price}, #{c.image})" +
+            "</foreach> ON DUPLICATE KEY UPDATE num = num + VALUES(num)" +
+            "</script>")
+    int mergeBatch(@Param("carts") List<Cart> carts);
+
+    /**
+     * 一条SQL按条目id批量修改一个用户的购物车中的数量，不属于该用户的条目不会被修改
+     */
+    @Update("<script>UPDATE cart SET num = CASE id " +
+            "<foreach collection='carts' item='c'>WHEN #{c.id} THEN #{c.num} </foreach>" +
+            "END WHERE user_id = #{userId} AND id IN " +
+            "<foreach collection='carts' item='c' open='(' separator=',' close=')'>#{c.id}</foreach>" +
+            "</script>")
+    int updateNumBatch(@Param("userId") Long userId, @Param("carts") List<Cart> carts);
+
+    /**
+     * 查询 (user_id, item_id) 唯一索引是否存在，返回索引包含的列数，不存在时为0
+     */
+    @Select("SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() " +
+            "AND table_name = 'cart' AND index_name = 'uk_user_item'")
+    int countUserItemIndex();
 }
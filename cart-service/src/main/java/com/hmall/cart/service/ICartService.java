@@ -2,6 +2,7 @@ package com.hmall.cart.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmall.cart.domain.dto.CartFormDTO;
+import com.hmall.cart.domain.dto.CartOperationDTO;
 import com.hmall.cart.domain.po.Cart;
 import com.hmall.cart.domain.vo.CartVO;
 
@@ -23,4 +24,45 @@ public interface ICartService extends IService<Cart> {
     List<CartVO> queryMyCarts();
 
     void removeByItemIds(Collection<Long> itemIds);
+
+    /**
+     * 修改当前用户的购物车条目
+     */
+    void updateCart(Cart cart);
+
+    /**
+     * 按购物车条目id删除当前用户的条目
+     */
+    void removeCartItem(Long id);
+
+    /**
+     * 在一个事务中批量加入、修改数量、删除当前用户的购物车条目
+     * @return 修改后的购物车
+     */
+    List<CartVO> batchUpdateCarts(List<CartOperationDTO> operations);
+
+    /**
+     * 未登录时按设备标识加入购物车
+     */
+    void addItem2GuestCart(String deviceToken, CartFormDTO cartFormDTO);
+
+    /**
+     * 查询设备的未登录购物车
+     */
+    List<CartVO> queryGuestCarts(String deviceToken);
+
+    /**
+     * 按商品id修改设备的未登录购物车条目
+     */
+    void updateGuestCart(String deviceToken, Cart cart);
+
+    /**
+     * 按商品id删除设备的未登录购物车条目
+     */
+    void removeGuestCartItems(String deviceToken, Collection<Long> itemIds);
+
+    /**
+     * 登录后把设备的未登录购物车一次合并到当前用户的购物车，并删除未登录购物车
+     */
+    void mergeGuestCart(String deviceToken);
 }
@@ -1,36 +1,29 @@
 package com.hmall.cart.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmall.api.clients.ItemClient;
-import com.hmall.api.dto.ItemDTO;
-import com.hmall.cart.config.CartProperties;
+import com.hmall.api.dto.ItemSnapshotDTO;
+import com.hmall.cart.cache.ItemSnapshotCache;
 import com.hmall.cart.domain.dto.CartFormDTO;
+import com.hmall.cart.domain.dto.CartOperationDTO;
 import com.hmall.cart.domain.po.Cart;
 import com.hmall.cart.domain.vo.CartVO;
 import com.hmall.cart.mapper.CartMapper;
 import com.hmall.cart.service.ICartService;
-import com.hmall.common.exception.BizIllegalException;
+import com.hmall.cart.store.CartStore;
+import com.hmall.cart.store.GuestCartStore;
+import com.hmall.common.exception.BadRequestException;
 import com.hmall.common.utils.BeanUtils;
 import com.hmall.common.utils.CollUtils;
 import com.hmall.common.utils.UserContext;
 import lombok.RequiredArgsConstructor;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static com.hmall.common.utils.RedisConstants.CART_ID_KEY;
-import static com.hmall.common.utils.RedisConstants.SHORT_SIXTY_MINUTES;
-
 /**
  * <p>
  * 订单详情表 服务实现类
@@ -43,75 +36,154 @@ import static com.hmall.common.utils.RedisConstants.SHORT_SIXTY_MINUTES;
 @RequiredArgsConstructor
 public class CartServiceImpl extends ServiceImpl<CartMapper, Cart> implements ICartService {
 
+    /**
+     * 批量修改一次最多包含的操作数
+     */
+    private static final int MAX_BATCH_OPERATIONS = 200;
+
     private final RestTemplate restTemplate;
 
     private  final DiscoveryClient discoveryClient;
 
-    private final CartProperties cartProperties;
-
     private final ItemClient itemClient;
 
-    private final StringRedisTemplate stringRedisTemplate;
+    private final CartStore cartStore;
+
+    private final GuestCartStore guestCartStore;
+
+    private final ItemSnapshotCache itemSnapshotCache;
 
     @Override
     public void addItem2Cart(CartFormDTO cartFormDTO) {
-        // 1.获取登录用户
-        Long userId = UserContext.getUser();
+        // 1.转换PO，每次加入一件
+        Cart cart = BeanUtils.copyBean(cartFormDTO, Cart.class);
+        cart.setNum(1);
+        // 2.新增或累加数量
+        cartStore.add(UserContext.getUser(), cart);
+    }
 
-        // 2.判断是否已经存在
-        if(checkItemExists(cartFormDTO.getItemId(), userId)){
-            // 2.1.存在，则更新数量
-            baseMapper.updateNum(cartFormDTO.getItemId(), userId);
-            return;
+    @Override
+    public void updateCart(Cart cart) {
+        cartStore.update(UserContext.getUser(), cart);
+    }
+
+    @Override
+    public void removeCartItem(Long id) {
+        cartStore.remove(UserContext.getUser(), id);
+    }
+
+    @Override
+    public List<CartVO> batchUpdateCarts(List<CartOperationDTO> operations) {
+        if (CollUtils.isEmpty(operations)) {
+            return queryMyCarts();
         }
-        // 2.2.不存在，判断是否超过购物车数量
-        checkCartsFull(userId);
-        // 3.新增购物车条目
-        // 3.1.转换PO
-        Cart cart = BeanUtils.copyBean(cartFormDTO, Cart.class);
-        // 3.2.保存当前用户
-        cart.setUserId(userId);
-        // 3.3.保存到数据库
-        save(cart);
+        if (operations.size() > MAX_BATCH_OPERATIONS) {
+            throw new BadRequestException("一次最多修改" + MAX_BATCH_OPERATIONS + "项");
+        }
+        // 1.按类型拆分，同一商品的多次加入合并为一次，同一条目的多次修改以最后一次为准
+        Map<Long, Cart> adds = new LinkedHashMap<>();
+        Map<Long, Cart> updates = new LinkedHashMap<>();
+        Set<Long> removeIds = new HashSet<>();
+        for (CartOperationDTO op : operations) {
+            if (op.getType() == null) {
+                throw new BadRequestException("操作类型不能为空");
+            }
+            switch (op.getType()) {
+                case ADD:
+                    if (op.getItemId() == null) {
+                        throw new BadRequestException("商品id不能为空");
+                    }
+                    int num = op.getNum() == null ? 1 : checkNum(op.getNum());
+                    adds.merge(op.getItemId(), BeanUtils.copyBean(op, Cart.class).setNum(num),
+                            (old, cur) -> old.setNum(old.getNum() + cur.getNum()));
+                    break;
+                case UPDATE:
+                    if (op.getId() == null || op.getNum() == null) {
+                        throw new BadRequestException("购物车条目id和数量不能为空");
+                    }
+                    updates.put(op.getId(), new Cart().setId(op.getId()).setNum(checkNum(op.getNum())));
+                    break;
+                default:
+                    if (op.getId() == null) {
+                        throw new BadRequestException("购物车条目id不能为空");
+                    }
+                    removeIds.add(op.getId());
+            }
+        }
+        // 2.一次完成全部修改，返回修改后的购物车
+        List<CartVO> cartVOS = cartStore.batch(UserContext.getUser(),
+                new ArrayList<>(adds.values()), new ArrayList<>(updates.values()), removeIds);
+        if (CollUtils.isEmpty(cartVOS)) {
+            return CollUtils.emptyList();
+        }
+        // 3.处理VO中的商品信息
+        handleCartItems(cartVOS);
+        return cartVOS;
+    }
+
+    private static int checkNum(int num) {
+        if (num <= 0) {
+            throw new BadRequestException("购买数量必须大于0");
+        }
+        return num;
     }
 
     @Override
     public List<CartVO> queryMyCarts() {
         // 1.查询我的购物车列表
-        //查缓存
-        List<String> cartList = stringRedisTemplate.opsForList().range(CART_ID_KEY, 0, -1);
-        //不为空则返回
-        ArrayList<CartVO> cartVOS = new ArrayList<>();
-        if (cartList.size()!=0) {
-            //转为PayOrderVO并返回
-            for(String payOrderList:cartList){
-                cartVOS.add(JSONUtil.toBean(payOrderList,CartVO.class));
-            }
-            // 3.处理VO中的商品信息
-            handleCartItems(cartVOS);
-            return cartVOS;
-        }
-        //缓存没有，查数据库
-        List<Cart> carts = lambdaQuery().eq(Cart::getUserId,  UserContext.getUser()).list();
-        if (CollUtils.isEmpty(carts)) {
-            //为空返回
+        List<CartVO> cartVOS = cartStore.list(UserContext.getUser());
+        if (CollUtils.isEmpty(cartVOS)) {
             return CollUtils.emptyList();
         }
-        //存入缓存
-        for(Cart cart:carts){
-            CartVO cartVO = BeanUtils.copyBean(cart, CartVO.class);
-            cartVOS.add(cartVO);
-            //转为json存入redis
-            stringRedisTemplate.opsForList().rightPush(CART_ID_KEY, JSONUtil.toJsonStr(cartVO));
+        // 2.处理VO中的商品信息
+        handleCartItems(cartVOS);
+        // 3.返回
+        return cartVOS;
+    }
+
+    @Override
+    public void addItem2GuestCart(String deviceToken, CartFormDTO cartFormDTO) {
+        Cart cart = BeanUtils.copyBean(cartFormDTO, Cart.class);
+        cart.setNum(1);
+        guestCartStore.add(deviceToken, cart);
+    }
+
+    @Override
+    public List<CartVO> queryGuestCarts(String deviceToken) {
+        List<CartVO> cartVOS = guestCartStore.list(deviceToken);
+        if (CollUtils.isEmpty(cartVOS)) {
+            return CollUtils.emptyList();
         }
-        //设置redis有效期
-        stringRedisTemplate.expire(CART_ID_KEY,SHORT_SIXTY_MINUTES, TimeUnit.MINUTES);
-        // 3.处理VO中的商品信息
         handleCartItems(cartVOS);
-        // 4.返回
         return cartVOS;
     }
 
+    @Override
+    public void updateGuestCart(String deviceToken, Cart cart) {
+        guestCartStore.update(deviceToken, cart);
+    }
+
+    @Override
+    public void removeGuestCartItems(String deviceToken, Collection<Long> itemIds) {
+        guestCartStore.remove(deviceToken, itemIds);
+    }
+
+    @Override
+    public void mergeGuestCart(String deviceToken) {
+        // 1.取出并删除未登录购物车，并发登录时只有一个请求能取到
+        List<Cart> carts = guestCartStore.take(deviceToken);
+        if (CollUtils.isEmpty(carts)) {
+            return;
+        }
+        // 2.一次批量合并，失败时放回，用户可以重新合并
+        try {
+            cartStore.merge(UserContext.getUser(), carts);
+        } catch (RuntimeException e) {
+            guestCartStore.restore(deviceToken, carts);
+            throw e;
+        }
+    }
+
     private void handleCartItems(List<CartVO> vos) {
         // TODO 1.获取商品id
         Set<Long> itemIds = vos.stream().map(CartVO::getItemId).collect(Collectors.toSet());
@@ -139,15 +211,14 @@ public class CartServiceImpl extends ServiceImpl<CartMapper, Cart> implements IC
             return;
         }
         List<ItemDTO> items = response.getBody();*/
-        List<ItemDTO> items = itemClient.queryItemByIds(itemIds);
-        if (CollUtils.isEmpty(items)) {
+        // 2.查询本地商品快照，本地没有的远程查询
+        Map<Long, ItemSnapshotDTO> itemMap = itemSnapshotCache.getAll(itemIds, itemClient::queryItemByIds);
+        if (itemMap.isEmpty()) {
             return;
         }
-        // 3.转为 id 到 item的map
-        Map<Long, ItemDTO> itemMap = items.stream().collect(Collectors.toMap(ItemDTO::getId, Function.identity()));
-        // 4.写入vo
+        // 3.写入vo
         for (CartVO v : vos) {
-            ItemDTO item = itemMap.get(v.getItemId());
+            ItemSnapshotDTO item = itemMap.get(v.getItemId());
             if (item == null) {
                 continue;
             }
@@ -158,29 +229,7 @@ public class CartServiceImpl extends ServiceImpl<CartMapper, Cart> implements IC
     }
 
     @Override
-    @Transactional
     public void removeByItemIds(Collection<Long> itemIds) {
-        // 1.构建删除条件，userId和itemId
-        QueryWrapper<Cart> queryWrapper = new QueryWrapper<Cart>();
-        queryWrapper.lambda()
-                .eq(Cart::getUserId, UserContext.getUser())
-                .in(Cart::getItemId, itemIds);
-        // 2.删除
-        remove(queryWrapper);
-    }
-
-    private void checkCartsFull(Long userId) {
-        int count = lambdaQuery().eq(Cart::getUserId, userId).count();
-        if (count >= cartProperties.getMaxAmount()) {
-            throw new BizIllegalException(StrUtil.format("用户购物车课程不能超过{}", cartProperties.getMaxAmount()));
-        }
-    }
-
-    private boolean checkItemExists(Long itemId, Long userId) {
-        int count = lambdaQuery()
-                .eq(Cart::getUserId, userId)
-                .eq(Cart::getItemId, itemId)
-                .count();
-        return count > 0;
+        cartStore.removeByItemIds(UserContext.getUser(), itemIds);
     }
 }
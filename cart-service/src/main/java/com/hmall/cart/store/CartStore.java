@@ -0,0 +1,55 @@
+package com.hmall.cart.store;
+
+import com.hmall.cart.domain.po.Cart;
+import com.hmall.cart.domain.vo.CartVO;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 购物车的读写，按 hm.cart.storage 选择实现
+ */
+public interface CartStore {
+
+    /**
+     * 查询用户的购物车，按条目id排序
+     */
+    List<CartVO> list(Long userId);
+
+    /**
+     * 商品不在购物车中则新增，已存在则累加数量；新增后超过购物车商品数上限时抛出 BizIllegalException
+     */
+    void add(Long userId, Cart cart);
+
+    /**
+     * 按条目id修改用户的购物车条目，条目不存在时忽略
+     */
+    void update(Long userId, Cart cart);
+
+    /**
+     * 按条目id删除用户的购物车条目
+     */
+    void remove(Long userId, Long id);
+
+    /**
+     * 按商品id删除用户的购物车条目
+     */
+    void removeByItemIds(Long userId, Collection<Long> itemIds);
+
+    /**
+     * 把多个商品一次合并到用户的购物车：不在购物车中的新增，已存在的累加数量；
+     * 合并后超过购物车商品数上限时抛出 BizIllegalException，不做任何修改
+     * @param carts 要合并的条目，同一商品只能出现一次
+     */
+    void merge(Long userId, List<Cart> carts);
+
+    /**
+     * 一次完成多项修改：依次按条目id删除、按条目id修改数量、加入商品(同 {@link #merge(Long, List)})，
+     * 任一步失败时全部不生效
+     * @param adds 要加入的商品，同一商品只能出现一次
+     * @param updates 要修改数量的条目，同一条目只能出现一次
+     * @param removeIds 要删除的条目id
+     * @return 修改后的购物车，按条目id排序
+     */
+    List<CartVO> batch(Long userId, List<Cart> adds, List<Cart> updates, Collection<Long> removeIds);
+}
@@ -0,0 +1,184 @@
+package com.hmall.cart.store;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmall.cart.cache.CartCache;
+import com.hmall.cart.config.CartProperties;
+import com.hmall.cart.domain.po.Cart;
+import com.hmall.cart.domain.vo.CartVO;
+import com.hmall.cart.mapper.CartMapper;
+import com.hmall.common.exception.BizIllegalException;
+import com.hmall.common.utils.BeanUtils;
+import com.hmall.common.utils.CollUtils;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 以数据库为准，redis中的 cart:{userId} 只是缓存，每次修改同步写库后再修改缓存中对应的商品
+ * <p>
+ * 加入购物车和合并游客购物车依赖 (user_id, item_id) 唯一索引，启动时检查，缺少时拒绝启动，
+ * 否则同一商品会被插入多条
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "hm.cart", name = "storage", havingValue = "db", matchIfMissing = true)
+public class DbCartStore implements CartStore {
+
+    private final CartMapper cartMapper;
+    private final CartCache cartCache;
+    private final CartProperties cartProperties;
+
+    @PostConstruct
+    public void checkSchema() {
+        if (cartMapper.countUserItemIndex() == 0) {
+            throw new IllegalStateException("购物车表缺少 (user_id, item_id) 唯一索引 uk_user_item，请先执行 db/cart_uk_user_item.sql");
+        }
+    }
+
+    @Override
+    public List<CartVO> list(Long userId) {
+        return cartCache.get(userId, () -> BeanUtils.copyList(cartMapper.selectList(byUser(userId)), CartVO.class));
+    }
+
+    @Override
+    public void add(Long userId, Cart cart) {
+        Long itemId = cart.getItemId();
+        // 1.占用一个购物车商品名额，已满时只允许累加已有商品的数量
+        boolean reserved = cartCache.tryReserve(userId, cartProperties.getMaxAmount(),
+                () -> cartMapper.selectCount(byUser(userId)));
+        if (!reserved && !checkItemExists(itemId, userId)) {
+            throw new BizIllegalException(StrUtil.format("用户购物车课程不能超过{}", cartProperties.getMaxAmount()));
+        }
+        // 2.新增或累加数量，一条SQL完成
+        cart.setUserId(userId);
+        int rows;
+        try {
+            rows = cartMapper.upsert(cart);
+        } catch (RuntimeException e) {
+            cartCache.release(userId, reserved ? 1 : 0);
+            throw e;
+        }
+        // 3.更新缓存，已存在的商品归还名额
+        if (rows == 1) {
+            cart.setCreateTime(LocalDateTime.now());
+            refreshCache(userId, cart);
+            return;
+        }
+        cartCache.release(userId, reserved ? 1 : 0);
+        cartCache.incrementNum(userId, itemId, cart.getNum());
+    }
+
+    @Override
+    public void update(Long userId, Cart cart) {
+        // 1.只能修改自己的购物车条目，不允许修改所属用户
+        cart.setUserId(null);
+        int updated = cartMapper.update(cart, byUser(userId).eq(Cart::getId, cart.getId()));
+        // 2.更新缓存中对应的商品
+        if (updated > 0) {
+            refreshCache(userId, cartMapper.selectById(cart.getId()));
+        }
+    }
+
+    @Override
+    public void remove(Long userId, Long id) {
+        // 1.查询条目，删除缓存时需要商品id
+        Cart cart = cartMapper.selectOne(byUser(userId).eq(Cart::getId, id));
+        if (cart == null) {
+            return;
+        }
+        // 2.删除数据库和缓存，归还名额
+        if (cartMapper.deleteById(id) > 0) {
+            cartCache.remove(userId, Collections.singletonList(cart.getItemId()));
+            cartCache.release(userId, 1);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void removeByItemIds(Long userId, Collection<Long> itemIds) {
+        // 按实际删除的条数归还名额
+        int removed = cartMapper.delete(byUser(userId).in(Cart::getItemId, itemIds));
+        cartCache.remove(userId, itemIds);
+        cartCache.release(userId, removed);
+    }
+
+    @Override
+    @Transactional
+    public void merge(Long userId, List<Cart> carts) {
+        if (CollUtils.isEmpty(carts)) {
+            return;
+        }
+        mergeItems(userId, carts);
+        // 多个商品同时变化，删除缓存和计数，下次使用时重建
+        cartCache.evict(userId);
+    }
+
+    @Override
+    @Transactional
+    public List<CartVO> batch(Long userId, List<Cart> adds, List<Cart> updates, Collection<Long> removeIds) {
+        // 1.按条目id删除、修改数量，各一条SQL
+        if (CollUtils.isNotEmpty(removeIds)) {
+            cartMapper.delete(byUser(userId).in(Cart::getId, removeIds));
+        }
+        if (CollUtils.isNotEmpty(updates)) {
+            cartMapper.updateNumBatch(userId, updates);
+        }
+        // 2.加入商品
+        if (CollUtils.isNotEmpty(adds)) {
+            mergeItems(userId, adds);
+        }
+        // 3.加锁读取修改后的购物车：能读到其它事务已提交的修改，并让同一用户的并发修改等到本事务提交
+        List<CartVO> carts = BeanUtils.copyList(
+                cartMapper.selectList(byUser(userId).orderByAsc(Cart::getId).last("FOR UPDATE")), CartVO.class);
+        // 4.提交后删除缓存和计数，下次使用时重建。不能用这份结果覆盖缓存：
+        // 提交之后、写缓存之前其它请求可能已经修改并更新了缓存，覆盖会把它们的修改冲掉
+        cartCache.evict(userId);
+        return carts;
+    }
+
+    /**
+     * 批量新增或累加数量，超过购物车商品数上限时抛出异常
+     */
+    private void mergeItems(Long userId, List<Cart> carts) {
+        // 1.统计新增的商品数，合并后超过上限时整体拒绝
+        List<Long> itemIds = carts.stream().map(Cart::getItemId).collect(Collectors.toList());
+        Set<Long> existing = cartMapper.selectList(byUser(userId).in(Cart::getItemId, itemIds).select(Cart::getItemId))
+                .stream().map(Cart::getItemId).collect(Collectors.toSet());
+        long added = itemIds.stream().filter(id -> !existing.contains(id)).count();
+        if (added > 0 && cartMapper.selectCount(byUser(userId)) + added > cartProperties.getMaxAmount()) {
+            throw new BizIllegalException(StrUtil.format("用户购物车课程不能超过{}", cartProperties.getMaxAmount()));
+        }
+        // 2.一条SQL批量新增或累加数量
+        carts.forEach(cart -> cart.setUserId(userId));
+        cartMapper.mergeBatch(carts);
+    }
+
+    /**
+     * 把数据库中的最新条目写入缓存的对应field
+     */
+    private void refreshCache(Long userId, Cart cart) {
+        if (cart != null) {
+            cartCache.put(userId, Collections.singletonList(BeanUtils.copyBean(cart, CartVO.class)));
+        }
+    }
+
+    private boolean checkItemExists(Long itemId, Long userId) {
+        return cartMapper.selectCount(byUser(userId).eq(Cart::getItemId, itemId)) > 0;
+    }
+
+    private static LambdaQueryWrapper<Cart> byUser(Long userId) {
+        return Wrappers.<Cart>lambdaQuery().eq(Cart::getUserId, userId);
+    }
+}
@@ -0,0 +1,187 @@
+package com.hmall.cart.store;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.util.ReUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmall.cart.config.CartProperties;
+import com.hmall.cart.domain.po.Cart;
+import com.hmall.cart.domain.vo.CartVO;
+import com.hmall.common.cache.CacheCodec;
+import com.hmall.common.exception.BadRequestException;
+import com.hmall.common.exception.BizIllegalException;
+import com.hmall.common.utils.BeanUtils;
+import com.hmall.common.utils.CollUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmall.common.utils.RedisConstants.CART_GUEST_KEY;
+
+/**
+ * 未登录用户的购物车，按前端生成的设备标识存放在 cart:guest:{deviceToken} 的hash中，
+ * field为商品id，值为编码后的 {@link CartVO}，只在redis中保存，每次修改后刷新有效期
+ * <p>
+ * 登录后通过 {@link #take(String)} 一次取出并删除，合并到用户的购物车。
+ * 同一设备基本不会并发修改，修改时直接读出、修改、写回，并发时以后写入的为准
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GuestCartStore {
+
+    /**
+     * 设备标识只允许字母、数字、下划线和短横线
+     */
+    private static final String DEVICE_TOKEN_PATTERN = "^[A-Za-z0-9_-]{8,64}$";
+    /**
+     * 修改时允许覆盖的字段
+     */
+    private static final CopyOptions UPDATE_OPTIONS = CopyOptions.create()
+            .ignoreNullValue()
+            .setIgnoreProperties("id", "userId", "itemId", "createTime", "updateTime");
+
+    private final RedisTemplate<String, byte[]> cacheRedisTemplate;
+    private final CacheCodec cacheCodec;
+    private final CartProperties cartProperties;
+
+    /**
+     * 查询设备的购物车，按加入时间排序
+     */
+    public List<CartVO> list(String deviceToken) {
+        return sorted(decode(cacheRedisTemplate.opsForHash().entries(key(deviceToken))));
+    }
+
+    /**
+     * 商品不在购物车中则新增，已存在则累加数量
+     */
+    public void add(String deviceToken, Cart cart) {
+        String key = key(deviceToken);
+        String field = String.valueOf(cart.getItemId());
+        CartVO vo = cacheCodec.decode((byte[]) cacheRedisTemplate.opsForHash().get(key, field), CartVO.class);
+        if (vo != null) {
+            vo.setNum(vo.getNum() + cart.getNum());
+        } else {
+            if (cacheRedisTemplate.opsForHash().size(key) >= cartProperties.getMaxAmount()) {
+                throw new BizIllegalException(StrUtil.format("用户购物车课程不能超过{}", cartProperties.getMaxAmount()));
+            }
+            vo = BeanUtils.copyBean(cart, CartVO.class);
+            vo.setCreateTime(LocalDateTime.now());
+        }
+        write(key, field, vo);
+    }
+
+    /**
+     * 按商品id修改购物车条目，条目不存在时忽略
+     */
+    public void update(String deviceToken, Cart cart) {
+        String key = key(deviceToken);
+        String field = String.valueOf(cart.getItemId());
+        CartVO vo = cacheCodec.decode((byte[]) cacheRedisTemplate.opsForHash().get(key, field), CartVO.class);
+        if (vo == null) {
+            return;
+        }
+        BeanUtil.copyProperties(cart, vo, UPDATE_OPTIONS);
+        write(key, field, vo);
+    }
+
+    /**
+     * 按商品id删除购物车条目
+     */
+    public void remove(String deviceToken, Collection<Long> itemIds) {
+        if (CollUtils.isEmpty(itemIds)) {
+            return;
+        }
+        cacheRedisTemplate.opsForHash().delete(key(deviceToken), itemIds.stream().map(String::valueOf).toArray());
+    }
+
+    /**
+     * 在一个事务中读出并删除设备的购物车，同一设备并发登录时只有一个请求能取到
+     * @return 购物车条目，数量即为要合并的数量
+     */
+    public List<Cart> take(String deviceToken) {
+        List<Object> results = cacheRedisTemplate.execute(new TakeCallback(key(deviceToken)));
+        if (CollUtils.isEmpty(results)) {
+            return CollUtils.emptyList();
+        }
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> entries = (Map<Object, Object>) results.get(0);
+        return BeanUtils.copyList(sorted(decode(entries)), Cart.class);
+    }
+
+    /**
+     * 合并失败时把取出的条目放回，已有同一商品时不覆盖
+     */
+    public void restore(String deviceToken, List<Cart> carts) {
+        if (CollUtils.isEmpty(carts)) {
+            return;
+        }
+        String key = key(deviceToken);
+        try {
+            for (Cart cart : carts) {
+                cacheRedisTemplate.opsForHash().putIfAbsent(key, String.valueOf(cart.getItemId()),
+                        cacheCodec.encode(BeanUtils.copyBean(cart, CartVO.class)));
+            }
+            cacheRedisTemplate.expire(key, cartProperties.getGuestTtl().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.error("放回未登录购物车失败，deviceToken：{}", deviceToken, e);
+        }
+    }
+
+    private void write(String key, String field, CartVO vo) {
+        cacheRedisTemplate.opsForHash().put(key, field, cacheCodec.encode(vo));
+        cacheRedisTemplate.expire(key, cartProperties.getGuestTtl().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static String key(String deviceToken) {
+        if (deviceToken == null || !ReUtil.isMatch(DEVICE_TOKEN_PATTERN, deviceToken)) {
+            throw new BadRequestException("设备标识不合法");
+        }
+        return CART_GUEST_KEY + deviceToken;
+    }
+
+    private List<CartVO> decode(Map<Object, Object> entries) {
+        List<CartVO> carts = new ArrayList<>(entries.size());
+        entries.forEach((field, value) -> {
+            CartVO cart = cacheCodec.decode((byte[]) value, CartVO.class);
+            if (cart == null) {
+                log.warn("无法解码的未登录购物车条目，field：{}", field);
+                return;
+            }
+            carts.add(cart);
+        });
+        return carts;
+    }
+
+    private static List<CartVO> sorted(List<CartVO> carts) {
+        return carts.stream()
+                .sorted(Comparator.comparing(CartVO::getCreateTime, Comparator.nullsLast(Comparator.naturalOrder())))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 在MULTI中执行HGETALL和DEL，返回事务的执行结果
+     */
+    @RequiredArgsConstructor
+    private static class TakeCallback implements SessionCallback<List<Object>> {
+        private final String key;
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public List<Object> execute(RedisOperations operations) {
+            RedisOperations<String, byte[]> ops = operations;
+            ops.multi();
+            ops.opsForHash().entries(key);
+            ops.delete(key);
+            return ops.exec();
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package com.hmall.cart.store;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmall.cart.config.CartProperties;
+import com.hmall.cart.domain.po.Cart;
+import com.hmall.cart.domain.vo.CartVO;
+import com.hmall.cart.mapper.CartMapper;
+import com.hmall.common.cache.CacheCodec;
+import com.hmall.common.exception.BizIllegalException;
+import com.hmall.common.utils.BeanUtils;
+import com.hmall.common.utils.CollUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmall.cart.cache.CartCache.LOADED_FIELD;
+import static com.hmall.common.utils.RedisConstants.*;
+
+/**
+ * 以redis为准，数据库异步写回
+ * <p>
+ * 每个用户的购物车存放在 cart:{userId} 的hash中，结构与db模式的缓存相同。第一次访问或过期后从数据库重建；
+ * 修改时用WATCH乐观锁读出整个购物车、修改后在同一个事务中写回，并把用户id加入待写回集合。
+ * 定时任务每次取出一批用户，把他们当前的整个购物车覆盖写回数据库，同一用户在两次写回之间的多次修改只写一次库。
+ * 取出的用户先放入处理中集合，每个用户在单独的事务中写回，成功后从处理中集合删除，进程宕机后由下一次写回重新处理。
+ * 写回失败的用户放回待写回集合，下次定时任务再试；连续失败达到 hm.cart.flush-max-attempts 次的移入
+ * cart:dirty:failed 并记录错误日志，不再阻塞其它用户的写回，修复数据后手动移回待写回集合。
+ * 一批全部失败时多半是数据库不可用，不计入失败次数。写回任务的锁在每批开始前续期，锁已失效时停止
+ * <p>
+ * 购物车在redis中的有效期要远大于写回间隔，并且redis不能开启会淘汰这些key的内存策略，否则未写回的修改会丢失。
+ * 切换回db模式前要等待待写回集合清空
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "hm.cart", name = "storage", havingValue = "redis")
+public class RedisCartStore implements CartStore {
+
+    /**
+     * KEYS[1]为hash的key，ARGV[1]为有效期(毫秒)，之后依次为field、值。hash已存在时不覆盖
+     */
+    private static final DefaultRedisScript<Long> FILL_IF_ABSENT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 1 then return 0 end " +
+            "for i = 2, #ARGV, 2 do redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1]) end " +
+            "redis.call('pexpire', KEYS[1], ARGV[1]) " +
+            "return 1", Long.class);
+    /**
+     * KEYS[1]为待写回集合，KEYS[2]为处理中集合，ARGV[1]为每批用户数。
+     * 处理中集合不为空说明上次写回没有完成，直接返回它重新处理
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> MOVE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[2]) == 1 then return redis.call('smembers', KEYS[2]) end " +
+            "local ids = redis.call('spop', KEYS[1], tonumber(ARGV[1])) " +
+            "if #ids > 0 then redis.call('sadd', KEYS[2], unpack(ids)) end " +
+            "return ids", List.class);
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0", Long.class);
+    /**
+     * 锁仍由ARGV[1]持有时续期ARGV[2]毫秒，返回1；已失去锁返回0
+     */
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end return 0",
+            Long.class);
+    /**
+     * 修改时乐观锁冲突的最大重试次数
+     */
+    private static final int MAX_CAS_RETRIES = 5;
+    /**
+     * 每次定时任务最多写回的批数，剩下的留给下一次
+     */
+    private static final int MAX_FLUSH_ROUNDS = 20;
+    /**
+     * 修改时允许覆盖的字段，id、用户、商品不允许修改
+     */
+    private static final CopyOptions UPDATE_OPTIONS = CopyOptions.create()
+            .ignoreNullValue()
+            .setIgnoreProperties("id", "userId", "itemId", "createTime", "updateTime");
+
+    private final RedisTemplate<String, byte[]> cacheRedisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheCodec cacheCodec;
+    private final CartMapper cartMapper;
+    private final CartProperties cartProperties;
+    private final TransactionTemplate transactionTemplate;
+
+    @Override
+    public List<CartVO> list(Long userId) {
+        Map<String, CartVO> carts = read(userId);
+        if (carts == null) {
+            load(userId);
+            carts = read(userId);
+        }
+        if (carts == null) {
+            // 刚加载就过期或被删除，直接返回数据库中的数据
+            return BeanUtils.copyList(cartMapper.selectList(Wrappers.<Cart>lambdaQuery().eq(Cart::getUserId, userId)), CartVO.class);
+        }
+        return sorted(carts.values());
+    }
+
+    @Override
+    public void add(Long userId, Cart cart) {
+        mutate(userId, (carts, change) -> {
+            String field = String.valueOf(cart.getItemId());
+            CartVO old = carts.get(field);
+            // 1.已存在，累加数量
+            if (old != null) {
+                old.setNum(old.getNum() + cart.getNum());
+                change.put(field, old);
+                return;
+            }
+            // 2.不存在，判断是否超过购物车数量后新增，id由雪花算法生成，写回数据库时直接使用
+            if (carts.size() >= cartProperties.getMaxAmount()) {
+                throw new BizIllegalException(StrUtil.format("用户购物车课程不能超过{}", cartProperties.getMaxAmount()));
+            }
+            CartVO vo = BeanUtils.copyBean(cart, CartVO.class);
+            vo.setId(IdWorker.getId());
+            vo.setCreateTime(LocalDateTime.now());
+            change.put(field, vo);
+        });
+    }
+
+    @Override
+    public void update(Long userId, Cart cart) {
+        mutate(userId, (carts, change) -> carts.forEach((field, vo) -> {
+            if (vo.getId().equals(cart.getId())) {
+                BeanUtil.copyProperties(cart, vo, UPDATE_OPTIONS);
+                change.put(field, vo);
+            }
+        }));
+    }
+
+    @Override
+    public void remove(Long userId, Long id) {
+        mutate(userId, (carts, change) -> carts.forEach((field, vo) -> {
+            if (vo.getId().equals(id)) {
+                change.delete(field);
+            }
+        }));
+    }
+
+    @Override
+    public void removeByItemIds(Long userId, Collection<Long> itemIds) {
+        mutate(userId, (carts, change) -> {
+            for (Long itemId : itemIds) {
+                String field = String.valueOf(itemId);
+                if (carts.containsKey(field)) {
+                    change.delete(field);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void merge(Long userId, List<Cart> carts) {
+        if (CollUtils.isEmpty(carts)) {
+            return;
+        }
+        mutate(userId, (current, change) -> mergeItems(current, change, carts));
+    }
+
+    @Override
+    public List<CartVO> batch(Long userId, List<Cart> adds, List<Cart> updates, Collection<Long> removeIds) {
+        Set<Long> removeIdSet = new HashSet<>(removeIds);
+        Map<Long, Integer> nums = updates.stream().collect(Collectors.toMap(Cart::getId, Cart::getNum, (a, b) -> b));
+        List<CartVO> result = new ArrayList<>();
+        // 所有修改在同一个事务中写入，冲突重试时重新执行
+        mutate(userId, (current, change) -> {
+            // 1.按条目id删除、修改数量
+            Iterator<Map.Entry<String, CartVO>> it = current.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, CartVO> e = it.next();
+                CartVO vo = e.getValue();
+                if (removeIdSet.contains(vo.getId())) {
+                    change.delete(e.getKey());
+                    it.remove();
+                    continue;
+                }
+                Integer num = nums.get(vo.getId());
+                if (num != null) {
+                    vo.setNum(num);
+                    change.put(e.getKey(), vo);
+                }
+            }
+            // 2.加入商品
+            mergeItems(current, change, adds);
+            result.clear();
+            result.addAll(current.values());
+        });
+        return sorted(result);
+    }
+
+    /**
+     * 已存在的商品累加数量，不存在的新增，同时修改current；合并后超过上限时整体拒绝
+     */
+    private void mergeItems(Map<String, CartVO> current, CartChange change, List<Cart> carts) {
+        long added = carts.stream().filter(cart -> !current.containsKey(String.valueOf(cart.getItemId()))).count();
+        if (added > 0 && current.size() + added > cartProperties.getMaxAmount()) {
+            throw new BizIllegalException(StrUtil.format("用户购物车课程不能超过{}", cartProperties.getMaxAmount()));
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (Cart cart : carts) {
+            String field = String.valueOf(cart.getItemId());
+            CartVO vo = current.get(field);
+            if (vo != null) {
+                vo.setNum(vo.getNum() + cart.getNum());
+            } else {
+                vo = BeanUtils.copyBean(cart, CartVO.class);
+                vo.setId(IdWorker.getId());
+                vo.setCreateTime(now);
+                current.put(field, vo);
+            }
+            change.put(field, vo);
+        }
+    }
+
+    /**
+     * 乐观锁修改一个用户的购物车：读出整个购物车交给editor修改，再在事务中写回修改的商品并标记待写回，
+     * 期间有其它修改时重试；购物车不在redis中时先从数据库加载
+     */
+    private void mutate(Long userId, CartEditor editor) {
+        for (int i = 0; i < MAX_CAS_RETRIES; i++) {
+            Boolean done = cacheRedisTemplate.execute(new MutateCallback(userId, editor));
+            if (done == null) {
+                load(userId);
+                continue;
+            }
+            if (done) {
+                return;
+            }
+        }
+        throw new BizIllegalException("购物车操作过于频繁，请稍后重试");
+    }
+
+    @FunctionalInterface
+    private interface CartEditor {
+        /**
+         * @param carts 商品id -> 购物车条目，可以直接修改其中的对象后放入change
+         */
+        void edit(Map<String, CartVO> carts, CartChange change);
+    }
+
+    /**
+     * 一次修改中要写入和删除的商品
+     */
+    private static class CartChange {
+        private final Map<String, CartVO> puts = new HashMap<>();
+        private final Set<String> deletes = new HashSet<>();
+
+        void put(String field, CartVO cart) {
+            deletes.remove(field);
+            puts.put(field, cart);
+        }
+
+        void delete(String field) {
+            puts.remove(field);
+            deletes.add(field);
+        }
+
+        boolean isEmpty() {
+            return puts.isEmpty() && deletes.isEmpty();
+        }
+    }
+
+    /**
+     * 返回null表示购物车不在redis中，false表示乐观锁冲突
+     */
+    @RequiredArgsConstructor
+    private class MutateCallback implements SessionCallback<Boolean> {
+        private final Long userId;
+        private final CartEditor editor;
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public Boolean execute(RedisOperations operations) {
+            RedisOperations<String, byte[]> ops = operations;
+            String key = CART_KEY + userId;
+            ops.watch(key);
+            CartChange change = new CartChange();
+            try {
+                Map<String, CartVO> carts = decode(ops.opsForHash().entries(key));
+                if (carts == null) {
+                    ops.unwatch();
+                    return null;
+                }
+                editor.edit(carts, change);
+            } catch (RuntimeException e) {
+                ops.unwatch();
+                throw e;
+            }
+            if (change.isEmpty()) {
+                ops.unwatch();
+                return true;
+            }
+            ops.multi();
+            Map<Object, Object> puts = new HashMap<>(change.puts.size());
+            change.puts.forEach((field, cart) -> puts.put(field, cacheCodec.encode(cart)));
+            if (!puts.isEmpty()) {
+                ops.opsForHash().putAll(key, puts);
+            }
+            if (!change.deletes.isEmpty()) {
+                ops.opsForHash().delete(key, change.deletes.toArray());
+            }
+            ops.expire(key, cartProperties.getRedisTtl().toMillis(), TimeUnit.MILLISECONDS);
+            ops.opsForSet().add(CART_DIRTY_KEY, String.valueOf(userId).getBytes(StandardCharsets.UTF_8));
+            return CollUtils.isNotEmpty(ops.exec());
+        }
+    }
+
+    /**
+     * 从数据库加载用户的购物车，redis中已存在时不覆盖
+     */
+    private void load(Long userId) {
+        List<Cart> carts = cartMapper.selectList(Wrappers.<Cart>lambdaQuery().eq(Cart::getUserId, userId));
+        List<byte[]> args = new ArrayList<>(carts.size() * 2 + 3);
+        args.add(String.valueOf(cartProperties.getRedisTtl().toMillis()).getBytes(StandardCharsets.UTF_8));
+        args.add(LOADED_FIELD.getBytes(StandardCharsets.UTF_8));
+        args.add(new byte[0]);
+        for (Cart cart : carts) {
+            args.add(String.valueOf(cart.getItemId()).getBytes(StandardCharsets.UTF_8));
+            args.add(cacheCodec.encode(BeanUtils.copyBean(cart, CartVO.class)));
+        }
+        cacheRedisTemplate.execute(FILL_IF_ABSENT_SCRIPT, Collections.singletonList(CART_KEY + userId), args.toArray());
+    }
+
+    /**
+     * @return 商品id -> 购物车条目；购物车不在redis中时返回null
+     */
+    private Map<String, CartVO> read(Long userId) {
+        return decode(cacheRedisTemplate.opsForHash().entries(CART_KEY + userId));
+    }
+
+    private Map<String, CartVO> decode(Map<Object, Object> entries) {
+        if (!entries.containsKey(LOADED_FIELD)) {
+            return null;
+        }
+        Map<String, CartVO> carts = new HashMap<>(entries.size());
+        entries.forEach((field, value) -> {
+            if (LOADED_FIELD.equals(field)) {
+                return;
+            }
+            CartVO cart = cacheCodec.decode((byte[]) value, CartVO.class);
+            if (cart == null) {
+                // redis是唯一的数据来源，不能丢弃整个购物车，跳过无法解码的条目
+                log.error("无法解码的购物车条目，field：{}", field);
+                return;
+            }
+            carts.put((String) field, cart);
+        });
+        return carts;
+    }
+
+    private static List<CartVO> sorted(Collection<CartVO> carts) {
+        List<CartVO> list = new ArrayList<>(carts);
+        list.sort(Comparator.comparing(CartVO::getId));
+        return list;
+    }
+
+    /**
+     * 把有变更的购物车写回数据库，多个节点通过分布式锁保证同时只有一个在写回
+     */
+    @Scheduled(fixedDelayString = "${hm.cart.flush-interval-millis:1000}")
+    public void flush() {
+        String token = UUID.fastUUID().toString(true);
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(LOCK_CART_FLUSH_KEY, token, cartProperties.getFlushLockTtl());
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        try {
+            int batchSize = cartProperties.getFlushBatchSize();
+            for (int round = 0; round < MAX_FLUSH_ROUNDS; round++) {
+                // 每批开始前确认仍持有锁并续期，锁已过期说明其它节点可能已经在写回
+                if (round > 0 && !renewLock(token)) {
+                    log.warn("购物车写回任务的锁已失效，停止本次写回");
+                    break;
+                }
+                if (!flushBatch(batchSize)) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("购物车写回数据库失败，稍后重试", e);
+        } finally {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, CollUtils.singletonList(LOCK_CART_FLUSH_KEY), token);
+        }
+    }
+
+    private boolean renewLock(String token) {
+        Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, CollUtils.singletonList(LOCK_CART_FLUSH_KEY),
+                token, String.valueOf(cartProperties.getFlushLockTtl().toMillis()));
+        return renewed != null && renewed > 0;
+    }
+
+    /**
+     * @return 本批是满的并且全部写回成功，可以继续下一批
+     */
+    @SuppressWarnings("unchecked")
+    private boolean flushBatch(int batchSize) {
+        // 1.取出一批用户放入处理中集合
+        List<String> userIds = stringRedisTemplate.execute(MOVE_SCRIPT,
+                Arrays.asList(CART_DIRTY_KEY, CART_FLUSHING_KEY), String.valueOf(batchSize));
+        if (CollUtils.isEmpty(userIds)) {
+            return false;
+        }
+        // 2.每个用户在单独的事务中覆盖写回，一个用户失败不影响其它用户
+        List<String> failed = new ArrayList<>();
+        for (String id : userIds) {
+            Long userId = Long.valueOf(id);
+            Map<String, CartVO> carts = read(userId);
+            if (carts == null) {
+                // 已过期或被删除，无法确定最新状态，保留数据库中的数据
+                log.warn("待写回的购物车已不在redis中，userId：{}", userId);
+                continue;
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> writeBack(userId, carts));
+            } catch (Exception e) {
+                log.warn("购物车写回数据库失败，userId：{}", userId, e);
+                failed.add(id);
+            }
+        }
+        // 3.成功的用户移出处理中集合并清除失败次数
+        Object[] done = userIds.stream().filter(id -> !failed.contains(id)).toArray();
+        if (done.length > 0) {
+            stringRedisTemplate.opsForSet().remove(CART_FLUSHING_KEY, done);
+            stringRedisTemplate.opsForHash().delete(CART_FLUSH_ATTEMPTS_KEY, done);
+        }
+        // 4.失败的放回待写回集合；全部失败时多半是数据库不可用，不计入失败次数
+        boolean counted = failed.size() < userIds.size();
+        if (!counted) {
+            log.error("本批{}个购物车全部写回失败，稍后重试", failed.size());
+        }
+        failed.forEach(id -> onFlushFailed(id, counted));
+        // 5.有失败时结束本次写回，等下次定时任务再重试，避免同一用户在一次任务中连续失败
+        return failed.isEmpty() && userIds.size() >= batchSize;
+    }
+
+    /**
+     * @param counted 是否计入失败次数，达到上限后移入 cart:dirty:failed 不再重试
+     */
+    private void onFlushFailed(String userId, boolean counted) {
+        if (!counted) {
+            stringRedisTemplate.opsForSet().move(CART_FLUSHING_KEY, userId, CART_DIRTY_KEY);
+            return;
+        }
+        Long attempts = stringRedisTemplate.opsForHash().increment(CART_FLUSH_ATTEMPTS_KEY, userId, 1);
+        if (attempts != null && attempts >= cartProperties.getFlushMaxAttempts()) {
+            log.error("购物车连续{}次写回数据库失败，不再重试，移入{}，userId：{}", attempts, CART_FLUSH_FAILED_KEY, userId);
+            stringRedisTemplate.opsForSet().move(CART_FLUSHING_KEY, userId, CART_FLUSH_FAILED_KEY);
+            stringRedisTemplate.opsForHash().delete(CART_FLUSH_ATTEMPTS_KEY, userId);
+            return;
+        }
+        stringRedisTemplate.opsForSet().move(CART_FLUSHING_KEY, userId, CART_DIRTY_KEY);
+    }
+
+    private void writeBack(Long userId, Map<String, CartVO> carts) {
+        List<Cart> rows = carts.values().stream()
+                .map(vo -> BeanUtils.copyBean(vo, Cart.class).setUserId(userId))
+                .collect(Collectors.toList());
+        List<Long> ids = rows.stream().map(Cart::getId).collect(Collectors.toList());
+        cartMapper.delete(Wrappers.<Cart>lambdaQuery()
+                .eq(Cart::getUserId, userId)
+                .notIn(!ids.isEmpty(), Cart::getId, ids));
+        if (!rows.isEmpty()) {
+            cartMapper.upsertBatch(rows);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+-- 购物车 (user_id, item_id) 唯一索引，加入购物车的upsert和游客购物车的合并都依赖该索引
+-- 服务启动时会检查该索引，不存在时拒绝启动
+
+-- 1.合并已有的重复条目：保留id最小的一条，数量累加
+UPDATE cart c
+    JOIN (SELECT MIN(id) AS id, SUM(num) AS num
+          FROM cart
+          GROUP BY user_id, item_id
+          HAVING COUNT(*) > 1) d ON c.id = d.id
+SET c.num = d.num;
+
+DELETE c
+FROM cart c
+    JOIN cart k ON k.user_id = c.user_id AND k.item_id = c.item_id AND k.id < c.id;
+
+-- 2.添加唯一索引
+ALTER TABLE cart ADD UNIQUE KEY uk_user_item (user_id, item_id);
@@ -0,0 +1,126 @@
+package com.hmall.cart.cache;
+
+import com.hmall.cart.domain.vo.CartVO;
+import com.hmall.cart.support.FakeRedis;
+import com.hmall.common.cache.CacheClient;
+import com.hmall.common.cache.CacheCodec;
+import com.hmall.common.cache.CacheProperties;
+import com.hmall.common.cache.VersionedCacheCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmall.cart.cache.CartCache.LOADED_FIELD;
+import static com.hmall.common.utils.RedisConstants.CART_FILL_KEY;
+import static com.hmall.common.utils.RedisConstants.CART_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CartCacheTest {
+
+    private final CacheCodec codec = new VersionedCacheCodec(false);
+    private final FakeRedis redis = new FakeRedis();
+
+    private CartCache cartCache;
+
+    @BeforeEach
+    void setUp() {
+        redis.script("redis.call('get', KEYS[2]) ~= ARGV[2]", (keys, args) -> {
+            // 令牌未变且hash不存在时才写入
+            if (!FakeRedis.str(args.get(1)).equals(redis.strings.get(keys.get(1)))) {
+                return 0L;
+            }
+            redis.delete(keys.get(1));
+            if (redis.exists(keys.get(0))) {
+                return 0L;
+            }
+            putFields(keys.get(0), args, 2);
+            return 1L;
+        }).script("then redis.call('del', KEYS[2]) return 0 end", (keys, args) -> {
+            // hash不存在时删除令牌
+            if (!redis.exists(keys.get(0))) {
+                redis.delete(keys.get(1));
+                return 0L;
+            }
+            putFields(keys.get(0), args, 1);
+            return 1L;
+        });
+        cartCache = new CartCache(redis.bytesTemplate(), redis.stringTemplate(), codec,
+                new CacheClient(null, null, null, new CacheProperties(), null));
+        cartCache.init();
+    }
+
+    @Test
+    void missIsLoadedOnceAndThenServedFromCache() {
+        int[] loads = {0};
+        List<CartVO> first = cartCache.get(1L, () -> {
+            loads[0]++;
+            return Collections.singletonList(cart(10L, 1));
+        });
+        List<CartVO> second = cartCache.get(1L, () -> {
+            loads[0]++;
+            return Collections.emptyList();
+        });
+
+        assertEquals(1, loads[0]);
+        assertEquals(1, first.size());
+        assertEquals(1, second.size());
+        assertEquals(1, second.get(0).getNum());
+        assertFalse(redis.exists(CART_FILL_KEY + 1));
+    }
+
+    @Test
+    void staleLoadIsNotCachedWhenCartChangesDuringLoad() {
+        List<CartVO> stale = cartCache.get(1L, () -> {
+            // 查库之后、写缓存之前，其它请求修改了购物车并提交，此时缓存还不存在
+            cartCache.put(1L, Collections.singletonList(cart(10L, 5)));
+            return Collections.singletonList(cart(10L, 1));
+        });
+        assertEquals(1, stale.get(0).getNum());
+        assertFalse(redis.exists(CART_KEY + 1));
+
+        // 下次查询重新查库，缓存的是修改后的数据
+        List<CartVO> fresh = cartCache.get(1L, () -> Collections.singletonList(cart(10L, 5)));
+        assertEquals(5, fresh.get(0).getNum());
+        assertEquals(5, codec.decode((byte[]) redis.hashes.get(CART_KEY + 1).get("10"), CartVO.class).getNum());
+    }
+
+    @Test
+    void staleLoadIsNotCachedWhenItemIsRemovedDuringLoad() {
+        cartCache.get(1L, () -> {
+            cartCache.remove(1L, Collections.singletonList(10L));
+            return Collections.singletonList(cart(10L, 1));
+        });
+
+        assertFalse(redis.exists(CART_KEY + 1));
+    }
+
+    @Test
+    void onlyTheLatestLoadIsCached() {
+        cartCache.get(1L, () -> {
+            // 并发的另一次查询在本次查库期间完成并写入了缓存
+            cartCache.get(1L, () -> Collections.singletonList(cart(10L, 2)));
+            return Collections.singletonList(cart(10L, 1));
+        });
+
+        Map<String, Object> hash = redis.hashes.get(CART_KEY + 1);
+        assertTrue(hash.containsKey(LOADED_FIELD));
+        assertEquals(2, codec.decode((byte[]) hash.get("10"), CartVO.class).getNum());
+    }
+
+    private void putFields(String key, List<Object> args, int from) {
+        for (int i = from; i + 1 < args.size(); i += 2) {
+            redis.hash(key).put(FakeRedis.str(args.get(i)), args.get(i + 1));
+        }
+    }
+
+    private static CartVO cart(Long itemId, int num) {
+        CartVO cart = new CartVO();
+        cart.setId(itemId * 10);
+        cart.setItemId(itemId);
+        cart.setNum(num);
+        return cart;
+    }
+}
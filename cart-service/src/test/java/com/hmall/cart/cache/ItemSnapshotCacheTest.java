@@ -0,0 +1,84 @@
+package com.hmall.cart.cache;
+
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.api.dto.ItemSnapshotDTO;
+import com.hmall.cart.config.CartProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ItemSnapshotCacheTest {
+
+    private ItemSnapshotCache cache;
+    private List<List<Long>> remoteCalls;
+
+    @BeforeEach
+    void setUp() {
+        cache = new ItemSnapshotCache(new CartProperties());
+        cache.init();
+        remoteCalls = new ArrayList<>();
+    }
+
+    @Test
+    void olderChangeDoesNotOverwriteNewerOne() {
+        cache.putAll(Collections.singletonList(snapshot(1L, 200, 2L)));
+        cache.putAll(Collections.singletonList(snapshot(1L, 100, 1L)));
+
+        assertEquals(200, cache.getAll(Collections.singletonList(1L), this::remote).get(1L).getPrice());
+        assertTrue(remoteCalls.isEmpty());
+    }
+
+    @Test
+    void remoteResultIsOverwrittenByAnyChange() {
+        cache.getAll(Collections.singletonList(1L), ids -> {
+            remoteCalls.add(ids);
+            return Collections.singletonList(item(1L, 100));
+        });
+
+        cache.putAll(Collections.singletonList(snapshot(1L, 200, 1L)));
+
+        assertEquals(200, cache.getAll(Collections.singletonList(1L), this::remote).get(1L).getPrice());
+        assertEquals(1, remoteCalls.size());
+    }
+
+    @Test
+    void remoteResultDoesNotOverwriteChangeReceivedDuringTheCall() {
+        Map<Long, ItemSnapshotDTO> result = cache.getAll(Collections.singletonList(1L), ids -> {
+            // 远程查询期间收到了变更消息，远程返回的是商品服务缓存中的旧数据
+            cache.putAll(Collections.singletonList(snapshot(1L, 200, 1L)));
+            return Collections.singletonList(item(1L, 100));
+        });
+
+        assertEquals(200, result.get(1L).getPrice());
+    }
+
+    private List<ItemDTO> remote(List<Long> ids) {
+        remoteCalls.add(ids);
+        return Collections.emptyList();
+    }
+
+    private static ItemSnapshotDTO snapshot(Long id, int price, long version) {
+        ItemSnapshotDTO snapshot = new ItemSnapshotDTO();
+        snapshot.setId(id);
+        snapshot.setPrice(price);
+        snapshot.setStatus(1);
+        snapshot.setStock(10);
+        snapshot.setVersion(version);
+        return snapshot;
+    }
+
+    private static ItemDTO item(Long id, int price) {
+        ItemDTO item = new ItemDTO();
+        item.setId(id);
+        item.setPrice(price);
+        item.setStatus(1);
+        item.setStock(10);
+        return item;
+    }
+}
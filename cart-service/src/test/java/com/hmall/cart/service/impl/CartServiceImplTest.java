@@ -0,0 +1,104 @@
+package com.hmall.cart.service.impl;
+
+import com.hmall.cart.config.CartProperties;
+import com.hmall.cart.domain.dto.CartOperationDTO;
+import com.hmall.cart.domain.po.Cart;
+import com.hmall.cart.store.CartStore;
+import com.hmall.cart.store.GuestCartStore;
+import com.hmall.cart.support.FakeRedis;
+import com.hmall.common.cache.VersionedCacheCodec;
+import com.hmall.common.utils.UserContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class CartServiceImplTest {
+
+    private static final String DEVICE = "device-0001";
+
+    private List<Cart> batchUpdates;
+    private List<Cart> merged;
+    private boolean mergeFails;
+    private GuestCartStore guestCartStore;
+    private CartServiceImpl cartService;
+
+    @BeforeEach
+    void setUp() {
+        UserContext.setUser(1L);
+        CartStore cartStore = mock(CartStore.class);
+        when(cartStore.batch(any(), any(), any(), any())).thenAnswer(inv -> {
+            batchUpdates = inv.getArgument(2);
+            return Collections.emptyList();
+        });
+        doAnswer(inv -> {
+            if (mergeFails) {
+                throw new IllegalStateException("Lock wait timeout exceeded");
+            }
+            merged = inv.getArgument(1);
+            return null;
+        }).when(cartStore).merge(any(), anyList());
+        CartProperties properties = new CartProperties();
+        properties.setMaxAmount(10);
+        guestCartStore = new GuestCartStore(new FakeRedis().bytesTemplate(), new VersionedCacheCodec(false), properties);
+        cartService = new CartServiceImpl(null, null, null, cartStore, guestCartStore, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserContext.removeUser();
+    }
+
+    @Test
+    void lastUpdateOfSameEntryWins() {
+        cartService.batchUpdateCarts(Arrays.asList(update(10L, 2), update(11L, 1), update(10L, 5)));
+
+        // 每种存储方式收到的同一条目只有一次，db模式的CASE和redis模式的覆盖结果一致
+        assertEquals(2, batchUpdates.size());
+        assertEquals(10L, batchUpdates.get(0).getId());
+        assertEquals(5, batchUpdates.get(0).getNum());
+        assertEquals(11L, batchUpdates.get(1).getId());
+    }
+
+    @Test
+    void guestCartIsMergedOnce() {
+        guestCartStore.add(DEVICE, new Cart().setItemId(10L).setNum(2));
+
+        cartService.mergeGuestCart(DEVICE);
+        List<Cart> first = merged;
+        merged = null;
+        cartService.mergeGuestCart(DEVICE);
+
+        assertEquals(1, first.size());
+        assertEquals(2, first.get(0).getNum());
+        assertNull(merged);
+    }
+
+    @Test
+    void failedMergePutsGuestCartBack() {
+        guestCartStore.add(DEVICE, new Cart().setItemId(10L).setNum(2));
+        mergeFails = true;
+
+        assertThrows(IllegalStateException.class, () -> cartService.mergeGuestCart(DEVICE));
+
+        // 放回后用户可以重新合并
+        assertEquals(1, guestCartStore.list(DEVICE).size());
+        mergeFails = false;
+        cartService.mergeGuestCart(DEVICE);
+        assertEquals(1, merged.size());
+    }
+
+    private static CartOperationDTO update(Long id, int num) {
+        CartOperationDTO op = new CartOperationDTO();
+        op.setType(CartOperationDTO.Type.UPDATE);
+        op.setId(id);
+        op.setNum(num);
+        return op;
+    }
+}
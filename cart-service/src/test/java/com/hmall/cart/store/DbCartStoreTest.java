@@ -0,0 +1,165 @@
+package com.hmall.cart.store;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.hmall.cart.cache.CartCache;
+import com.hmall.cart.config.CartProperties;
+import com.hmall.cart.domain.po.Cart;
+import com.hmall.cart.domain.vo.CartVO;
+import com.hmall.cart.mapper.CartMapper;
+import com.hmall.cart.support.FakeRedis;
+import com.hmall.common.cache.CacheClient;
+import com.hmall.common.cache.CacheCodec;
+import com.hmall.common.cache.CacheProperties;
+import com.hmall.common.cache.VersionedCacheCodec;
+import com.hmall.common.exception.BizIllegalException;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.hmall.cart.cache.CartCache.LOADED_FIELD;
+import static com.hmall.common.utils.RedisConstants.CART_COUNT_KEY;
+import static com.hmall.common.utils.RedisConstants.CART_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DbCartStoreTest {
+
+    private final CacheCodec codec = new VersionedCacheCodec(false);
+    private final FakeRedis redis = new FakeRedis();
+    /**
+     * 加入购物车的upsert影响的行数：1为新增，2为累加已有商品的数量
+     */
+    private int upsertRows = 1;
+    private boolean upserted;
+    /**
+     * 购物车中已有的同一商品条数
+     */
+    private int existingItems;
+    /**
+     * uk_user_item 唯一索引包含的列数，0表示索引不存在
+     */
+    private int userItemIndexColumns = 2;
+
+    private DbCartStore store;
+
+    @BeforeEach
+    void setUp() {
+        // 条件构造器按实体的表信息解析lambda中的列名
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), Cart.class);
+        redis.script("if not n then return -1 end", (keys, args) -> {
+            String n = redis.strings.get(keys.get(0));
+            if (n == null) {
+                return -1L;
+            }
+            if (Long.parseLong(n) >= Long.parseLong(FakeRedis.str(args.get(0)))) {
+                return 0L;
+            }
+            redis.strings.put(keys.get(0), String.valueOf(Long.parseLong(n) + 1));
+            return 1L;
+        }).script("return redis.call('decrby'", (keys, args) -> {
+            String n = redis.strings.get(keys.get(0));
+            if (n == null) {
+                return 0L;
+            }
+            long value = Long.parseLong(n) - Long.parseLong(FakeRedis.str(args.get(0)));
+            redis.strings.put(keys.get(0), String.valueOf(value));
+            return value;
+        }).script("then redis.call('del', KEYS[2]) return 0 end", (keys, args) -> {
+            redis.delete(keys.get(1));
+            return 0L;
+        });
+        CartCache cartCache = new CartCache(redis.bytesTemplate(), redis.stringTemplate(), codec,
+                new CacheClient(null, null, null, new CacheProperties(), null));
+        cartCache.init();
+        CartProperties properties = new CartProperties();
+        properties.setMaxAmount(2);
+        CartMapper cartMapper = mock(CartMapper.class);
+        when(cartMapper.selectCount(any())).thenAnswer(inv -> existingItems);
+        when(cartMapper.countUserItemIndex()).thenAnswer(inv -> userItemIndexColumns);
+        when(cartMapper.upsert(any())).thenAnswer(inv -> {
+            upserted = true;
+            return upsertRows;
+        });
+        when(cartMapper.updateNumBatch(anyLong(), anyList())).thenAnswer(inv -> ((List<?>) inv.getArgument(1)).size());
+        when(cartMapper.selectList(any())).thenReturn(
+                Collections.singletonList(new Cart().setId(100L).setUserId(1L).setItemId(10L).setNum(3)));
+        store = new DbCartStore(cartMapper, cartCache, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void batchEvictsCacheAfterCommitInsteadOfOverwritingIt() {
+        TransactionSynchronizationManager.initSynchronization();
+        List<CartVO> carts = store.batch(1L, null,
+                Collections.singletonList(new Cart().setId(100L).setNum(3)), null);
+        assertEquals(1, carts.size());
+
+        // 提交之后、执行回调之前，其它请求已经把更新的数量写入了缓存
+        CartVO newer = new CartVO();
+        newer.setId(100L);
+        newer.setItemId(10L);
+        newer.setNum(5);
+        redis.hash(CART_KEY + 1).put(LOADED_FIELD, new byte[0]);
+        redis.hash(CART_KEY + 1).put("10", codec.encode(newer));
+        redis.strings.put(CART_COUNT_KEY + 1, "1");
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        // 不会用本事务读到的旧结果覆盖，而是删除后重建
+        assertFalse(redis.exists(CART_KEY + 1));
+        assertFalse(redis.exists(CART_COUNT_KEY + 1));
+    }
+
+    @Test
+    void addingExistingItemGivesBackReservedSlot() {
+        redis.strings.put(CART_COUNT_KEY + 1, "1");
+        upsertRows = 2;
+
+        store.add(1L, new Cart().setItemId(10L).setNum(1));
+
+        assertEquals("1", redis.strings.get(CART_COUNT_KEY + 1));
+    }
+
+    @Test
+    void addingNewItemIsRejectedWhenCartIsFull() {
+        redis.strings.put(CART_COUNT_KEY + 1, "2");
+
+        assertThrows(BizIllegalException.class, () -> store.add(1L, new Cart().setItemId(10L).setNum(1)));
+        assertFalse(upserted);
+        assertEquals("2", redis.strings.get(CART_COUNT_KEY + 1));
+    }
+
+    @Test
+    void addingExistingItemIsAllowedWhenCartIsFull() {
+        redis.strings.put(CART_COUNT_KEY + 1, "2");
+        existingItems = 1;
+        upsertRows = 2;
+
+        store.add(1L, new Cart().setItemId(10L).setNum(1));
+
+        assertTrue(upserted);
+        assertEquals("2", redis.strings.get(CART_COUNT_KEY + 1));
+    }
+
+    @Test
+    void startupFailsWithoutUserItemIndex() {
+        store.checkSchema();
+
+        userItemIndexColumns = 0;
+        assertThrows(IllegalStateException.class, () -> store.checkSchema());
+    }
+}
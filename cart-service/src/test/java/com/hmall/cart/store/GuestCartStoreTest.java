@@ -0,0 +1,74 @@
+package com.hmall.cart.store;
+
+import com.hmall.cart.config.CartProperties;
+import com.hmall.cart.domain.po.Cart;
+import com.hmall.cart.domain.vo.CartVO;
+import com.hmall.cart.support.FakeRedis;
+import com.hmall.common.cache.CacheCodec;
+import com.hmall.common.cache.VersionedCacheCodec;
+import com.hmall.common.exception.BadRequestException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.hmall.common.utils.RedisConstants.CART_GUEST_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+
+class GuestCartStoreTest {
+
+    private static final String DEVICE = "device-0001";
+
+    private final CacheCodec codec = new VersionedCacheCodec(false);
+    private final FakeRedis redis = new FakeRedis();
+    private final GuestCartStore store;
+
+    GuestCartStoreTest() {
+        CartProperties properties = new CartProperties();
+        properties.setMaxAmount(10);
+        store = new GuestCartStore(redis.bytesTemplate(), codec, properties);
+    }
+
+    @Test
+    void takeReturnsCartOnceAndDeletesIt() {
+        store.add(DEVICE, cart(10L, 1));
+        store.add(DEVICE, cart(11L, 2));
+        store.add(DEVICE, cart(10L, 3));
+
+        List<Cart> taken = store.take(DEVICE);
+
+        assertEquals(2, taken.size());
+        assertEquals(4, taken.stream().filter(c -> c.getItemId() == 10L).findFirst()
+                .orElseThrow(IllegalStateException::new).getNum());
+        assertFalse(redis.exists(CART_GUEST_KEY + DEVICE));
+        // 并发登录的另一个请求取不到，不会重复合并
+        assertTrue(store.take(DEVICE).isEmpty());
+    }
+
+    @Test
+    void restoreKeepsItemsAddedAfterTake() {
+        store.add(DEVICE, cart(10L, 1));
+        store.add(DEVICE, cart(11L, 2));
+        List<Cart> taken = store.take(DEVICE);
+        // 合并失败之前，用户又加入了同一个商品
+        store.add(DEVICE, cart(10L, 7));
+
+        store.restore(DEVICE, taken);
+
+        List<CartVO> carts = store.list(DEVICE);
+        assertEquals(2, carts.size());
+        assertEquals(7, carts.stream().filter(c -> c.getItemId() == 10L).findFirst()
+                .orElseThrow(IllegalStateException::new).getNum());
+        assertEquals(2, carts.stream().filter(c -> c.getItemId() == 11L).findFirst()
+                .orElseThrow(IllegalStateException::new).getNum());
+    }
+
+    @Test
+    void invalidDeviceTokenIsRejected() {
+        assertThrows(BadRequestException.class, () -> store.list("bad token"));
+    }
+
+    private static Cart cart(Long itemId, int num) {
+        return new Cart().setItemId(itemId).setNum(num);
+    }
+}
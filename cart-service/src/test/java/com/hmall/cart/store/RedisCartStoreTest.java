@@ -0,0 +1,174 @@
+package com.hmall.cart.store;
+
+import com.hmall.cart.config.CartProperties;
+import com.hmall.cart.domain.po.Cart;
+import com.hmall.cart.domain.vo.CartVO;
+import com.hmall.cart.mapper.CartMapper;
+import com.hmall.cart.support.FakeRedis;
+import com.hmall.common.cache.CacheCodec;
+import com.hmall.common.cache.VersionedCacheCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+import static com.hmall.cart.cache.CartCache.LOADED_FIELD;
+import static com.hmall.common.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RedisCartStoreTest {
+
+    private final CacheCodec codec = new VersionedCacheCodec(false);
+    private final FakeRedis redis = new FakeRedis();
+    private final CartProperties properties = new CartProperties();
+    /**
+     * userId -> 写回数据库的条目
+     */
+    private final Map<Long, List<Cart>> written = new LinkedHashMap<>();
+    private final Set<Long> poisoned = new HashSet<>();
+    /**
+     * 每次写回一个用户之后执行
+     */
+    private Runnable afterWrite = () -> {
+    };
+
+    private RedisCartStore store;
+
+    @BeforeEach
+    void setUp() {
+        redis.script("spop", (keys, args) -> {
+            // 处理中集合不为空时直接返回，否则从待写回集合取出一批
+            if (redis.sets.containsKey(keys.get(1))) {
+                return new ArrayList<>(redis.sets.get(keys.get(1)));
+            }
+            List<String> ids = new ArrayList<>();
+            Iterator<String> it = redis.sets.getOrDefault(keys.get(0), Collections.emptySet()).iterator();
+            while (it.hasNext() && ids.size() < Integer.parseInt(FakeRedis.str(args.get(0)))) {
+                ids.add(it.next());
+                it.remove();
+            }
+            if (!ids.isEmpty()) {
+                redis.set(keys.get(1)).addAll(ids);
+            }
+            redis.sets.values().removeIf(Set::isEmpty);
+            return ids;
+        }).script("return redis.call('del'", (keys, args) -> {
+            if (args.get(0).equals(redis.strings.get(keys.get(0)))) {
+                redis.delete(keys.get(0));
+                return 1L;
+            }
+            return 0L;
+        }).script("return redis.call('pexpire'", (keys, args) ->
+                args.get(0).equals(redis.strings.get(keys.get(0))) ? 1L : 0L);
+        CartMapper cartMapper = mock(CartMapper.class);
+        when(cartMapper.upsertBatch(anyList())).thenAnswer(inv -> {
+            List<Cart> rows = inv.getArgument(0);
+            Long userId = rows.get(0).getUserId();
+            if (poisoned.contains(userId)) {
+                throw new IllegalStateException("Data truncation, userId: " + userId);
+            }
+            written.put(userId, rows);
+            afterWrite.run();
+            return rows.size();
+        });
+        properties.setFlushMaxAttempts(2);
+        store = new RedisCartStore(redis.bytesTemplate(), redis.stringTemplate(), codec, cartMapper,
+                properties, new DirectTransactionTemplate());
+    }
+
+    @Test
+    void failingUserDoesNotBlockOthers() {
+        dirty(1L, 2L, 3L);
+        poisoned.add(2L);
+
+        store.flush();
+
+        assertEquals(new HashSet<>(Arrays.asList(1L, 3L)), written.keySet());
+        assertFalse(redis.sets.containsKey(CART_FLUSHING_KEY));
+        assertEquals(Collections.singleton("2"), redis.sets.get(CART_DIRTY_KEY));
+        assertEquals("1", redis.hashes.get(CART_FLUSH_ATTEMPTS_KEY).get("2"));
+        assertFalse(redis.exists(LOCK_CART_FLUSH_KEY));
+    }
+
+    @Test
+    void userIsSetAsideAfterMaxAttempts() {
+        poisoned.add(2L);
+        dirty(1L, 2L);
+        store.flush();
+        dirty(3L);
+        store.flush();
+
+        assertEquals(Collections.singleton("2"), redis.sets.get(CART_FLUSH_FAILED_KEY));
+        assertFalse(redis.sets.containsKey(CART_DIRTY_KEY));
+        assertFalse(redis.sets.containsKey(CART_FLUSHING_KEY));
+        assertFalse(redis.hashes.containsKey(CART_FLUSH_ATTEMPTS_KEY));
+    }
+
+    @Test
+    void batchThatFailsEntirelyIsNotCounted() {
+        dirty(2L);
+        poisoned.add(2L);
+
+        store.flush();
+        store.flush();
+        store.flush();
+
+        assertEquals(Collections.singleton("2"), redis.sets.get(CART_DIRTY_KEY));
+        assertFalse(redis.sets.containsKey(CART_FLUSH_FAILED_KEY));
+        assertFalse(redis.hashes.containsKey(CART_FLUSH_ATTEMPTS_KEY));
+    }
+
+    @Test
+    void flushStopsWhenLockIsLost() {
+        properties.setFlushBatchSize(1);
+        dirty(1L, 2L, 3L);
+        // 写完第一批后锁过期，被其它节点获取
+        afterWrite = () -> redis.strings.put(LOCK_CART_FLUSH_KEY, "other");
+
+        store.flush();
+
+        assertEquals(1, written.size());
+        assertEquals("other", redis.strings.get(LOCK_CART_FLUSH_KEY));
+    }
+
+    @Test
+    void fullBatchesContinueWhileLockIsHeld() {
+        properties.setFlushBatchSize(1);
+        dirty(1L, 2L, 3L);
+
+        store.flush();
+
+        assertEquals(3, written.size());
+        assertFalse(redis.sets.containsKey(CART_DIRTY_KEY));
+    }
+
+    /**
+     * 每个用户的购物车放入redis，并标记为待写回
+     */
+    private void dirty(Long... userIds) {
+        for (Long userId : userIds) {
+            CartVO vo = new CartVO();
+            vo.setId(userId * 100);
+            vo.setItemId(userId * 10);
+            vo.setNum(1);
+            Map<String, Object> hash = redis.hash(CART_KEY + userId);
+            hash.put(LOADED_FIELD, new byte[0]);
+            hash.put(String.valueOf(vo.getItemId()), codec.encode(vo));
+            redis.set(CART_DIRTY_KEY).add(String.valueOf(userId));
+        }
+    }
+
+    private static class DirectTransactionTemplate extends TransactionTemplate {
+        @Override
+        public <T> T execute(TransactionCallback<T> action) throws TransactionException {
+            return action.doInTransaction(new SimpleTransactionStatus());
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.hmall.cart.support;
+
+import org.springframework.data.redis.core.*;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 内存中的redis，只实现购物车用到的命令，供单元测试使用
+ * <p>
+ * lua脚本无法执行，测试按脚本内容中的片段注册对应的实现，见 {@link #script(String, ScriptHandler)}。
+ * 字节模板在MULTI之后的读写操作缓存到EXEC时依次执行，WATCH的key在此期间被修改过时EXEC返回空列表
+ */
+public class FakeRedis {
+
+    public final Map<String, String> strings = new HashMap<>();
+    public final Map<String, Set<String>> sets = new HashMap<>();
+    public final Map<String, Map<String, Object>> hashes = new HashMap<>();
+
+    private final Map<String, Long> versions = new HashMap<>();
+    private final Map<String, ScriptHandler> scripts = new LinkedHashMap<>();
+
+    /**
+     * EXEC之前执行，模拟其它客户端的并发修改
+     */
+    public Runnable beforeExec;
+
+    @FunctionalInterface
+    public interface ScriptHandler {
+        Object run(List<String> keys, List<Object> args);
+    }
+
+    /**
+     * 注册脚本的实现，执行的脚本内容包含fragment时调用handler
+     */
+    public FakeRedis script(String fragment, ScriptHandler handler) {
+        scripts.put(fragment, handler);
+        return this;
+    }
+
+    public static String str(Object value) {
+        return value instanceof byte[] ? new String((byte[]) value, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    public boolean exists(String key) {
+        return strings.containsKey(key) || sets.containsKey(key) || hashes.containsKey(key);
+    }
+
+    public void touch(String key) {
+        versions.merge(key, 1L, Long::sum);
+    }
+
+    public Map<String, Object> hash(String key) {
+        touch(key);
+        return hashes.computeIfAbsent(key, k -> new HashMap<>());
+    }
+
+    public Set<String> set(String key) {
+        touch(key);
+        return sets.computeIfAbsent(key, k -> new LinkedHashSet<>());
+    }
+
+    public boolean delete(String key) {
+        touch(key);
+        boolean existed = exists(key);
+        strings.remove(key);
+        sets.remove(key);
+        hashes.remove(key);
+        return existed;
+    }
+
+    private void dropEmpty(String key) {
+        Set<String> set = sets.get(key);
+        if (set != null && set.isEmpty()) {
+            sets.remove(key);
+        }
+        Map<String, Object> hash = hashes.get(key);
+        if (hash != null && hash.isEmpty()) {
+            hashes.remove(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T runScript(RedisScript<T> script, List<String> keys, Object[] args) {
+        for (Map.Entry<String, ScriptHandler> e : scripts.entrySet()) {
+            if (script.getScriptAsString().contains(e.getKey())) {
+                return (T) e.getValue().run(keys, Arrays.asList(args));
+            }
+        }
+        throw new UnsupportedOperationException("未注册的脚本：" + script.getScriptAsString());
+    }
+
+    public StringRedisTemplate stringTemplate() {
+        return new StringRedisTemplate() {
+            @Override
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                return runScript(script, keys, args);
+            }
+
+            @Override
+            public Boolean delete(String key) {
+                return FakeRedis.this.delete(key);
+            }
+
+            @Override
+            public Long delete(Collection<String> keys) {
+                return keys.stream().filter(FakeRedis.this::delete).count();
+            }
+
+            @Override
+            public ValueOperations<String, String> opsForValue() {
+                return proxy(ValueOperations.class, (name, args) -> {
+                    String key = (String) args[0];
+                    switch (name) {
+                        case "get":
+                            return strings.get(key);
+                        case "set":
+                            touch(key);
+                            strings.put(key, str(args[1]));
+                            return null;
+                        case "setIfAbsent":
+                            if (exists(key)) {
+                                return false;
+                            }
+                            touch(key);
+                            strings.put(key, str(args[1]));
+                            return true;
+                        default:
+                            throw new UnsupportedOperationException(name);
+                    }
+                });
+            }
+
+            @Override
+            public SetOperations<String, String> opsForSet() {
+                return setOperations(null);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <HK, HV> HashOperations<String, HK, HV> opsForHash() {
+                return hashOperations(null, null);
+            }
+        };
+    }
+
+    /**
+     * 购物车缓存使用的模板：key和hash的field为字符串，值为字节数组
+     */
+    public RedisTemplate<String, byte[]> bytesTemplate() {
+        return new BytesTemplate();
+    }
+
+    private class BytesTemplate extends RedisTemplate<String, byte[]> {
+        private List<Supplier<Object>> queued;
+        private final Map<String, Long> watched = new HashMap<>();
+
+        @Override
+        public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            return runScript(script, keys, args);
+        }
+
+        @Override
+        public <T> T execute(SessionCallback<T> session) {
+            try {
+                return session.execute(this);
+            } finally {
+                queued = null;
+                watched.clear();
+            }
+        }
+
+        @Override
+        public void watch(String key) {
+            watched.put(key, versions.getOrDefault(key, 0L));
+        }
+
+        @Override
+        public void unwatch() {
+            watched.clear();
+        }
+
+        @Override
+        public void multi() {
+            queued = new ArrayList<>();
+        }
+
+        @Override
+        public List<Object> exec() {
+            if (beforeExec != null) {
+                Runnable r = beforeExec;
+                beforeExec = null;
+                r.run();
+            }
+            List<Supplier<Object>> ops = queued;
+            queued = null;
+            boolean changed = watched.entrySet().stream()
+                    .anyMatch(e -> !e.getValue().equals(versions.getOrDefault(e.getKey(), 0L)));
+            watched.clear();
+            if (changed) {
+                return Collections.emptyList();
+            }
+            List<Object> results = new ArrayList<>();
+            for (Supplier<Object> op : ops) {
+                results.add(op.get());
+            }
+            return results;
+        }
+
+        private Object write(Runnable op) {
+            return run(() -> {
+                op.run();
+                return "OK";
+            });
+        }
+
+        /**
+         * 事务中缓存到EXEC时执行，返回null；否则直接执行
+         */
+        private Object run(Supplier<Object> op) {
+            if (queued != null) {
+                queued.add(op);
+                return null;
+            }
+            return op.get();
+        }
+
+        @Override
+        public Boolean delete(String key) {
+            if (queued != null) {
+                write(() -> FakeRedis.this.delete(key));
+                return null;
+            }
+            return FakeRedis.this.delete(key);
+        }
+
+        @Override
+        public Long delete(Collection<String> keys) {
+            return keys.stream().filter(FakeRedis.this::delete).count();
+        }
+
+        @Override
+        public Boolean expire(String key, long timeout, TimeUnit unit) {
+            write(() -> {
+            });
+            return true;
+        }
+
+        @Override
+        public SetOperations<String, byte[]> opsForSet() {
+            return setOperations(this::write);
+        }
+
+        @Override
+        public <HK, HV> HashOperations<String, HK, HV> opsForHash() {
+            return hashOperations(this::write, this::run);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T setOperations(Function<Runnable, Object> writer) {
+        return (T) proxy(SetOperations.class, (name, args) -> {
+            String key = (String) args[0];
+            switch (name) {
+                case "members":
+                    return new LinkedHashSet<>(sets.getOrDefault(key, Collections.emptySet()));
+                case "isMember":
+                    return sets.getOrDefault(key, Collections.emptySet()).contains(str(args[1]));
+                case "add":
+                    return write(writer, () -> Arrays.stream((Object[]) args[1]).forEach(v -> set(key).add(str(v))));
+                case "remove":
+                    long removed = 0;
+                    for (Object v : (Object[]) args[1]) {
+                        if (set(key).remove(str(v))) {
+                            removed++;
+                        }
+                    }
+                    dropEmpty(key);
+                    return removed;
+                case "move":
+                    boolean moved = set(key).remove(str(args[1]));
+                    dropEmpty(key);
+                    if (moved) {
+                        set((String) args[2]).add(str(args[1]));
+                    }
+                    return moved;
+                default:
+                    throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T hashOperations(Function<Runnable, Object> writer, Function<Supplier<Object>, Object> reader) {
+        return (T) proxy(HashOperations.class, (name, args) -> {
+            String key = (String) args[0];
+            switch (name) {
+                case "entries":
+                    return read(reader, () -> new HashMap<Object, Object>(hashes.getOrDefault(key, Collections.emptyMap())));
+                case "get":
+                    return hashes.getOrDefault(key, Collections.emptyMap()).get(str(args[1]));
+                case "size":
+                    return (long) hashes.getOrDefault(key, Collections.emptyMap()).size();
+                case "put":
+                    return write(writer, () -> hash(key).put(str(args[1]), args[2]));
+                case "putIfAbsent":
+                    if (hashes.getOrDefault(key, Collections.emptyMap()).containsKey(str(args[1]))) {
+                        return false;
+                    }
+                    write(writer, () -> hash(key).put(str(args[1]), args[2]));
+                    return true;
+                case "putAll":
+                    return write(writer, () -> ((Map<Object, Object>) args[1]).forEach((f, v) -> hash(key).put(str(f), v)));
+                case "delete":
+                    return write(writer, () -> {
+                        for (Object f : (Object[]) args[1]) {
+                            hash(key).remove(str(f));
+                        }
+                        dropEmpty(key);
+                    });
+                case "increment":
+                    long value = Long.parseLong(str(hash(key).getOrDefault(str(args[1]), "0"))) + ((Number) args[2]).longValue();
+                    hash(key).put(str(args[1]), String.valueOf(value));
+                    return value;
+                default:
+                    throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private static Object write(Function<Runnable, Object> writer, Runnable op) {
+        if (writer == null) {
+            op.run();
+            return null;
+        }
+        return writer.apply(op);
+    }
+
+    private static Object read(Function<Supplier<Object>, Object> reader, Supplier<Object> op) {
+        return reader == null ? op.get() : reader.apply(op);
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Object handle(String name, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<?> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type},
+                (p, method, args) -> handler.handle(method.getName(), args));
+    }
+}
@@ -0,0 +1,20 @@
+package com.hmall.api.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+@Data
+@ApiModel(description = "商品变更后的价格、状态、库存快照")
+public class ItemSnapshotDTO {
+    @ApiModelProperty("商品id")
+    private Long id;
+    @ApiModelProperty("价格（分）")
+    private Integer price;
+    @ApiModelProperty("商品状态 1-正常，2-下架，3-删除")
+    private Integer status;
+    @ApiModelProperty("库存数量")
+    private Integer stock;
+    @ApiModelProperty("快照版本，商品服务统一分配的递增序号，版本更旧的快照不会覆盖更新的")
+    private Long version;
+}
@@ -0,0 +1,62 @@
+package com.hmall.common.cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 旁路缓存的入口，各服务按数据类型创建 {@link CacheRegion}，读写缓存的逻辑和策略都在区域中统一处理
+ * <pre>
+ * orderCache = cacheClient.region("order", ORDER_ID_KEY, OrderVO.class);
+ * OrderVO order = orderCache.get(orderId, () -&gt; queryFromDb(orderId));
+ * </pre>
+ * 区域的有效期、空值、重建锁等策略可以在 hm.cache.specs.&lt;区域名&gt; 中按区域调整
+ */
+@RequiredArgsConstructor
+public class CacheClient {
+
+    private final RedisTemplate<String, byte[]> cacheRedisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheCodec cacheCodec;
+    private final CacheProperties cacheProperties;
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<String, CacheRegion<?, ?>> regions = new ConcurrentHashMap<>();
+
+    public <K, V> CacheRegion<K, V> region(String name, String keyPrefix, Class<V> valueType) {
+        return region(name, keyPrefix, (Type) valueType, null);
+    }
+
+    public <K, V> CacheRegion<K, V> region(String name, String keyPrefix, Type valueType) {
+        return region(name, keyPrefix, valueType, null);
+    }
+
+    /**
+     * 创建或获取缓存区域，同名的区域只创建一次
+     * @param name 区域名，用于查找配置和指标的cache标签
+     * @param keyPrefix redis的key前缀，完整的key为前缀加业务主键
+     * @param valueType 缓存值的类型，带泛型的用 TypeReference 获取
+     * @param defaultSpec 该区域在代码中的默认策略，可以为null
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> CacheRegion<K, V> region(String name, String keyPrefix, Type valueType, CacheSpec defaultSpec) {
+        return (CacheRegion<K, V>) regions.computeIfAbsent(name, n -> new CacheRegion<>(n, keyPrefix, valueType,
+                spec(n, defaultSpec), cacheRedisTemplate, stringRedisTemplate, cacheCodec, meterRegistry));
+    }
+
+    /**
+     * 按优先级合并出一个区域的策略，供不适合用 {@link CacheRegion} 的缓存(如redis hash)读取配置
+     */
+    public CacheSpec spec(String name, CacheSpec defaultSpec) {
+        CacheSpec configured = cacheProperties.getSpecs().get(name);
+        return (configured == null ? new CacheSpec() : configured)
+                .merge(defaultSpec)
+                .merge(cacheProperties.getDefaults())
+                .merge(CacheSpec.defaults());
+    }
+}
@@ -0,0 +1,20 @@
+package com.hmall.common.cache;
+
+import java.lang.reflect.Type;
+
+/**
+ * 缓存值的编解码
+ */
+public interface CacheCodec {
+
+    byte[] encode(Object value);
+
+    /**
+     * @return 解码失败时返回null，调用方按缓存未命中处理
+     */
+    <T> T decode(byte[] bytes, Type type);
+
+    default <T> T decode(byte[] bytes, Class<T> type) {
+        return decode(bytes, (Type) type);
+    }
+}
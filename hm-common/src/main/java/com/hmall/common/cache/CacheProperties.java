@@ -0,0 +1,24 @@
+package com.hmall.common.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "hm.cache")
+public class CacheProperties {
+    /**
+     * 写缓存时使用的编码：smile 带版本头的二进制格式；json 原先的JSON文本。读取时两种格式都支持
+     */
+    private String codec = "smile";
+    /**
+     * 所有缓存区域的默认策略
+     */
+    private CacheSpec defaults = CacheSpec.defaults();
+    /**
+     * 按区域名覆盖的策略
+     */
+    private Map<String, CacheSpec> specs = new HashMap<>();
+}
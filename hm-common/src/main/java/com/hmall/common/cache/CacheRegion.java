@@ -0,0 +1,364 @@
+package com.hmall.common.cache;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.RandomUtil;
+import com.hmall.common.utils.CollUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 一个缓存区域：同一类数据共用key前缀、值类型和缓存策略，由 {@link CacheClient#region} 创建
+ * <p>
+ * 读：批量查redis，未命中的key只查库一次并回写，数据库中没有的key缓存一段时间的空值。
+ * 同一个key的并发未命中，本节点内共享同一个加载中的future，节点之间通过redis互斥锁保证只有一个节点查库，
+ * 其它节点等待后重查redis，等待超时仍未重建的直接查库兜底；
+ * 写：数据变更后用 {@link #put} 回写或 {@link #evict} 删除，在事务中用 {@link #evictAfterCommit} 提交后删除
+ * <p>
+ * 每个区域按名称记录命中、未命中、加载耗时、删除和等锁超时的指标
+ * @param <K> 业务主键，拼在key前缀后面组成redis的key
+ * @param <V> 缓存值
+ */
+@Slf4j
+public class CacheRegion<K, V> {
+
+    /**
+     * 只删除自己持有的锁，KEYS为锁的key，ARGV[1]为加锁时写入的token
+     */
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "local n = 0 " +
+            "for i, key in ipairs(KEYS) do " +
+            "  if redis.call('get', key) == ARGV[1] then n = n + redis.call('del', key) end " +
+            "end " +
+            "return n", Long.class);
+
+    /**
+     * redis中表示数据不存在的空值标记
+     */
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    private final String name;
+    private final String keyPrefix;
+    private final Type valueType;
+    private final CacheSpec spec;
+    private final RedisTemplate<String, byte[]> cacheRedisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheCodec cacheCodec;
+
+    /**
+     * 本节点正在从数据库加载的key
+     */
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictCounter;
+    private final Counter lockTimeoutCounter;
+    private final Timer loadSuccessTimer;
+    private final Timer loadFailureTimer;
+
+    CacheRegion(String name, String keyPrefix, Type valueType, CacheSpec spec,
+                RedisTemplate<String, byte[]> cacheRedisTemplate, StringRedisTemplate stringRedisTemplate,
+                CacheCodec cacheCodec, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.keyPrefix = keyPrefix;
+        this.valueType = valueType;
+        this.spec = spec;
+        this.cacheRedisTemplate = cacheRedisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheCodec = cacheCodec;
+        this.hitCounter = Counter.builder("cache.gets").tag("cache", name).tag("result", "hit").register(meterRegistry);
+        this.missCounter = Counter.builder("cache.gets").tag("cache", name).tag("result", "miss").register(meterRegistry);
+        this.evictCounter = Counter.builder("cache.evictions").tag("cache", name).register(meterRegistry);
+        this.lockTimeoutCounter = Counter.builder("cache.lock.timeouts").tag("cache", name).register(meterRegistry);
+        this.loadSuccessTimer = Timer.builder("cache.loads").tag("cache", name).tag("result", "success").register(meterRegistry);
+        this.loadFailureTimer = Timer.builder("cache.loads").tag("cache", name).tag("result", "failure").register(meterRegistry);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CacheSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * 查询单个key，未命中时通过loader加载并回写
+     * @param loader 从数据库加载，不存在时返回null
+     * @return 不存在时返回null
+     */
+    public V get(K key, Supplier<V> loader) {
+        return getAll(Collections.singletonList(key), keys -> {
+            V value = loader.get();
+            return value == null ? Collections.emptyMap() : Collections.singletonMap(key, value);
+        }).get(key);
+    }
+
+    /**
+     * 批量查询，未命中的key合并成一次loader调用
+     * @param loader 根据未命中的key从数据库批量加载，结果中没有的key视为不存在
+     * @return 按传入顺序排列的 key -> 值，不存在的key对应的值为null
+     */
+    public Map<K, V> getAll(Collection<K> keys, Function<List<K>, Map<K, V>> loader) {
+        List<K> keyList = new ArrayList<>(new LinkedHashSet<>(keys));
+        // 1.查redis
+        Map<K, V> cached = getAllPresent(keyList);
+        // 2.未命中的加载并回写
+        List<K> missKeys = keyList.stream().filter(key -> !cached.containsKey(key)).collect(Collectors.toList());
+        if (!missKeys.isEmpty()) {
+            cached.putAll(loadSingleFlight(missKeys, loader));
+        }
+        // 3.按传入顺序合并结果
+        Map<K, V> result = new LinkedHashMap<>(keyList.size());
+        for (K key : keyList) {
+            result.put(key, cached.get(key));
+        }
+        return result;
+    }
+
+    /**
+     * 只查redis，不加载
+     * @return 命中的 key -> 值；缓存了空值的key也在结果中，对应的值为null。解码失败的按未命中处理
+     */
+    public Map<K, V> getAllPresent(Collection<K> keys) {
+        Map<K, V> result = new HashMap<>(keys.size());
+        if (keys.isEmpty()) {
+            return result;
+        }
+        List<K> keyList = new ArrayList<>(keys);
+        List<String> redisKeys = keyList.stream().map(this::redisKey).collect(Collectors.toList());
+        List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(redisKeys);
+        for (int i = 0; i < keyList.size(); i++) {
+            byte[] bytes = values == null ? null : values.get(i);
+            if (bytes == null) {
+                continue;
+            }
+            if (bytes.length == 0) {
+                result.put(keyList.get(i), null);
+                continue;
+            }
+            V value = cacheCodec.decode(bytes, valueType);
+            if (value != null) {
+                result.put(keyList.get(i), value);
+            }
+        }
+        hitCounter.increment(result.size());
+        missCounter.increment(keyList.size() - result.size());
+        return result;
+    }
+
+    public void put(K key, V value) {
+        putAll(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * 用pipeline一次写入，有效期加随机抖动；值为null的按配置写入空值或跳过
+     */
+    public void putAll(Map<K, V> values) {
+        if (CollUtils.isEmpty(values)) {
+            return;
+        }
+        long ttlMillis = spec.getTtl().toMillis();
+        long maxJitter = (long) (ttlMillis * spec.getTtlJitter());
+        long nullTtlMillis = spec.getNullTtl().toMillis();
+        boolean cacheNulls = Boolean.TRUE.equals(spec.getCacheNulls());
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                byte[] redisKey = redisKey(key).getBytes(StandardCharsets.UTF_8);
+                if (value != null) {
+                    long ttl = ttlMillis + RandomUtil.randomLong(maxJitter + 1);
+                    connection.stringCommands().set(redisKey, cacheCodec.encode(value),
+                            Expiration.milliseconds(ttl), RedisStringCommands.SetOption.UPSERT);
+                } else if (cacheNulls) {
+                    connection.stringCommands().set(redisKey, NULL_VALUE,
+                            Expiration.milliseconds(nullTtlMillis), RedisStringCommands.SetOption.UPSERT);
+                }
+            });
+            return null;
+        });
+    }
+
+    public void evict(K key) {
+        evict(Collections.singletonList(key));
+    }
+
+    public void evict(Collection<K> keys) {
+        if (CollUtils.isEmpty(keys)) {
+            return;
+        }
+        cacheRedisTemplate.delete(keys.stream().map(this::redisKey).collect(Collectors.toList()));
+        evictCounter.increment(keys.size());
+    }
+
+    /**
+     * 在当前事务提交后删除缓存，没有事务时立即删除
+     * <p>
+     * 提交前删除的话，并发读可能在提交前把旧数据重新写回缓存
+     */
+    public void evictAfterCommit(Collection<K> keys) {
+        if (CollUtils.isEmpty(keys)) {
+            return;
+        }
+        List<K> keyList = new ArrayList<>(keys);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict(keyList);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evict(keyList);
+            }
+        });
+    }
+
+    /**
+     * 本节点内同一个key同时只有一个线程加载，其它线程等待它的结果
+     */
+    private Map<K, V> loadSingleFlight(List<K> missKeys, Function<List<K>, Map<K, V>> loader) {
+        // 1.区分由自己加载的key和其它线程正在加载的key
+        Map<K, CompletableFuture<V>> owned = new HashMap<>();
+        Map<K, CompletableFuture<V>> waiting = new HashMap<>();
+        for (K key : missKeys) {
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> loading = inFlight.putIfAbsent(key, future);
+            if (loading == null) {
+                owned.put(key, future);
+            } else {
+                waiting.put(key, loading);
+            }
+        }
+        // 2.加载自己负责的key，完成后通知等待的线程
+        if (!owned.isEmpty()) {
+            try {
+                Map<K, V> loaded = loadWithMutex(new ArrayList<>(owned.keySet()), loader);
+                owned.forEach((key, future) -> future.complete(loaded.get(key)));
+            } catch (RuntimeException e) {
+                owned.values().forEach(future -> future.completeExceptionally(e));
+                throw e;
+            } finally {
+                owned.forEach(inFlight::remove);
+            }
+        }
+        // 3.合并结果
+        Map<K, V> result = new HashMap<>(missKeys.size());
+        owned.forEach((key, future) -> result.put(key, future.join()));
+        waiting.forEach((key, future) -> result.put(key, future.join()));
+        return result;
+    }
+
+    /**
+     * 加锁重建缓存：抢到redis锁的key由本节点查库回写，没抢到的等待其它节点重建
+     */
+    private Map<K, V> loadWithMutex(List<K> keys, Function<List<K>, Map<K, V>> loader) {
+        Map<K, V> result = new HashMap<>(keys.size());
+        // 1.批量尝试获取重建锁
+        String token = UUID.randomUUID().toString(true);
+        List<K> locked = tryLock(keys, token);
+        try {
+            if (!locked.isEmpty()) {
+                // 2.拿到锁后再查一次redis，别的节点可能刚重建完
+                Map<K, V> cached = getAllPresent(locked);
+                result.putAll(cached);
+                List<K> loadKeys = locked.stream().filter(key -> !cached.containsKey(key)).collect(Collectors.toList());
+                // 3.查库并回写，数据库中不存在的key写入空值
+                if (!loadKeys.isEmpty()) {
+                    Map<K, V> loaded = load(loadKeys, loader);
+                    Map<K, V> values = new HashMap<>(loadKeys.size());
+                    loadKeys.forEach(key -> values.put(key, loaded.get(key)));
+                    putAll(values);
+                    result.putAll(values);
+                }
+            }
+        } finally {
+            unlock(locked, token);
+        }
+        // 4.没拿到锁的key，等待其它节点重建后重查redis
+        List<K> others = keys.stream().filter(key -> !locked.contains(key)).collect(Collectors.toList());
+        for (int i = 0; i < spec.getLockWaitRetries() && !others.isEmpty(); i++) {
+            ThreadUtil.sleep(spec.getLockWaitInterval().toMillis());
+            Map<K, V> cached = getAllPresent(others);
+            result.putAll(cached);
+            others = others.stream().filter(key -> !cached.containsKey(key)).collect(Collectors.toList());
+        }
+        // 5.等待超时仍未重建，直接查库兜底，不回写
+        if (!others.isEmpty()) {
+            lockTimeoutCounter.increment(others.size());
+            result.putAll(load(others, loader));
+        }
+        return result;
+    }
+
+    private Map<K, V> load(List<K> keys, Function<List<K>, Map<K, V>> loader) {
+        long start = System.nanoTime();
+        try {
+            Map<K, V> loaded = loader.apply(keys);
+            loadSuccessTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return loaded == null ? Collections.emptyMap() : loaded;
+        } catch (RuntimeException e) {
+            loadFailureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    private List<K> tryLock(List<K> keys, String token) {
+        long ttlMillis = spec.getLockTtl().toMillis();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (K key : keys) {
+                conn.set(lockKey(key), token, Expiration.milliseconds(ttlMillis), RedisStringCommands.SetOption.SET_IF_ABSENT);
+            }
+            return null;
+        });
+        List<K> locked = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            if (Boolean.TRUE.equals(results.get(i))) {
+                locked.add(keys.get(i));
+            }
+        }
+        return locked;
+    }
+
+    private void unlock(List<K> keys, String token) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, keys.stream().map(this::lockKey).collect(Collectors.toList()), token);
+        } catch (Exception e) {
+            // 锁会自动过期，释放失败只是让等待的节点多等一会
+            log.warn("释放缓存重建锁失败，cache：{}", name, e);
+        }
+    }
+
+    private String redisKey(K key) {
+        return keyPrefix + key;
+    }
+
+    private String lockKey(K key) {
+        return "lock:" + keyPrefix + key;
+    }
+}
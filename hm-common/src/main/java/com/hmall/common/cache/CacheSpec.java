@@ -0,0 +1,72 @@
+package com.hmall.common.cache;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.time.Duration;
+
+/**
+ * 一个缓存区域的策略，为null的配置项沿用下一级的值
+ * <p>
+ * 优先级：hm.cache.specs.&lt;区域名&gt; &gt; 代码中创建区域时给的默认值 &gt; hm.cache.defaults
+ */
+@Data
+@Accessors(chain = true)
+public class CacheSpec {
+    /**
+     * 缓存有效期
+     */
+    private Duration ttl;
+    /**
+     * 有效期随机增加的比例上限，避免同一批写入的key集中过期
+     */
+    private Double ttlJitter;
+    /**
+     * 数据库中不存在的key是否缓存空值，防止缓存穿透
+     */
+    private Boolean cacheNulls;
+    /**
+     * 空值的有效期
+     */
+    private Duration nullTtl;
+    /**
+     * 缓存重建互斥锁的有效期，防止加载节点宕机后锁无法释放
+     */
+    private Duration lockTtl;
+    /**
+     * 其它节点正在重建缓存时，本节点等待并重查redis的次数
+     */
+    private Integer lockWaitRetries;
+    /**
+     * 每次等待重查redis的间隔
+     */
+    private Duration lockWaitInterval;
+
+    public static CacheSpec defaults() {
+        return new CacheSpec()
+                .setTtl(Duration.ofMinutes(30))
+                .setTtlJitter(0.1)
+                .setCacheNulls(true)
+                .setNullTtl(Duration.ofMinutes(1))
+                .setLockTtl(Duration.ofSeconds(3))
+                .setLockWaitRetries(5)
+                .setLockWaitInterval(Duration.ofMillis(50));
+    }
+
+    /**
+     * 用fallback补齐本对象中未配置的项，返回新对象
+     */
+    public CacheSpec merge(CacheSpec fallback) {
+        if (fallback == null) {
+            return this;
+        }
+        return new CacheSpec()
+                .setTtl(ttl != null ? ttl : fallback.getTtl())
+                .setTtlJitter(ttlJitter != null ? ttlJitter : fallback.getTtlJitter())
+                .setCacheNulls(cacheNulls != null ? cacheNulls : fallback.getCacheNulls())
+                .setNullTtl(nullTtl != null ? nullTtl : fallback.getNullTtl())
+                .setLockTtl(lockTtl != null ? lockTtl : fallback.getLockTtl())
+                .setLockWaitRetries(lockWaitRetries != null ? lockWaitRetries : fallback.getLockWaitRetries())
+                .setLockWaitInterval(lockWaitInterval != null ? lockWaitInterval : fallback.getLockWaitInterval());
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmall.common.cache;
+
+import cn.hutool.json.JSONConfig;
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 带版本头的缓存编码
+ * <p>
+ * 二进制格式为：1字节魔数 + 1字节格式版本 + 数据，目前只有版本1，数据为 Smile(二进制JSON)。
+ * 合法的JSON不会以魔数开头，所以不带头的值都按旧的JSON文本解码，新旧格式可以在同一个key空间里共存。
+ * 灰度时先把所有节点升级为能读两种格式、写JSON(hm.cache.codec=json)，再切换为写二进制
+ * <p>
+ * 解码时忽略不认识的字段，新版本的对象增加字段后，旧版本的节点仍然可以读取
+ */
+@Slf4j
+public class VersionedCacheCodec implements CacheCodec {
+
+    static final byte MAGIC = (byte) 0xC7;
+    static final byte FORMAT_SMILE_V1 = 1;
+    private static final int HEADER_LENGTH = 2;
+
+    /**
+     * 与原先写入缓存时的日期格式保持一致
+     */
+    private static final JSONConfig JSON_CONFIG = JSONConfig.create().setDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    private final ObjectMapper smileMapper;
+    private final boolean writeBinary;
+
+    public VersionedCacheCodec(boolean writeBinary) {
+        this.writeBinary = writeBinary;
+        this.smileMapper = new ObjectMapper(new SmileFactory())
+                .registerModule(new JavaTimeModule())
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        if (!writeBinary) {
+            return JSONUtil.toJsonStr(value, JSON_CONFIG).getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            byte[] body = smileMapper.writeValueAsBytes(value);
+            byte[] bytes = new byte[HEADER_LENGTH + body.length];
+            bytes[0] = MAGIC;
+            bytes[1] = FORMAT_SMILE_V1;
+            System.arraycopy(body, 0, bytes, HEADER_LENGTH, body.length);
+            return bytes;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("缓存编码失败：" + value.getClass().getName(), e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Type type) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            // 1.不带头的是旧的JSON文本
+            if (bytes[0] != MAGIC) {
+                return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type, false);
+            }
+            // 2.按版本解码
+            if (bytes.length > 1 && bytes[1] == FORMAT_SMILE_V1) {
+                return smileMapper.readValue(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH,
+                        smileMapper.getTypeFactory().constructType(type));
+            }
+            log.warn("无法识别的缓存格式版本：{}", bytes.length > 1 ? bytes[1] : null);
+        } catch (Exception e) {
+            log.warn("缓存解码失败，类型：{}", type.getTypeName(), e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,61 @@
+package com.hmall.common.config;
+
+import com.hmall.common.cache.CacheClient;
+import com.hmall.common.cache.CacheCodec;
+import com.hmall.common.cache.CacheProperties;
+import com.hmall.common.cache.VersionedCacheCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+@Configuration
+@ConditionalOnClass(RedisConnectionFactory.class)
+@AutoConfigureAfter(RedisAutoConfiguration.class)
+@EnableConfigurationProperties(CacheProperties.class)
+public class CacheConfig {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public CacheCodec cacheCodec(CacheProperties properties) {
+        return new VersionedCacheCodec("smile".equals(properties.getCodec()));
+    }
+
+    /**
+     * 值为编码后的字节数组，key仍然是字符串
+     */
+    @Bean
+    @ConditionalOnBean(RedisConnectionFactory.class)
+    public RedisTemplate<String, byte[]> cacheRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setHashKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.setHashValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    /**
+     * 没有引入actuator的服务，指标注册到全局的registry
+     */
+    @Bean
+    @ConditionalOnBean(RedisConnectionFactory.class)
+    public CacheClient cacheClient(RedisTemplate<String, byte[]> cacheRedisTemplate, StringRedisTemplate stringRedisTemplate,
+                                   CacheCodec cacheCodec, CacheProperties properties,
+                                   ObjectProvider<MeterRegistry> meterRegistry) {
+        return new CacheClient(cacheRedisTemplate, stringRedisTemplate, cacheCodec, properties,
+                meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+}
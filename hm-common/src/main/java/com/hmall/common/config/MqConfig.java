@@ -1,11 +1,18 @@
 package com.hmall.common.config;
 
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+/**
+ * JSON消息转换器。不作为自动配置注册：支付成功等已有消息仍使用默认的java序列化格式，
+ * 需要JSON格式的服务通过 @Import(MqConfig.class) 显式启用，收发双方须同时启用
+ */
 @Configuration
+@ConditionalOnClass(RabbitTemplate.class)
 public class MqConfig {
     @Bean
     public MessageConverter jackson2JsonMessageConverter(){
@@ -0,0 +1,7 @@
+package com.hmall.common.utils;
+
+public class MqConstants {
+    public static final String ITEM_EXCHANGE = "item.topic";
+    public static final String ITEM_CHANGE_KEY = "item.change";
+
+}
@@ -2,10 +2,27 @@ package com.hmall.common.utils;
 
 public class RedisConstants {
     public static final String ORDER_ID_KEY = "order:id:";
-    public static final String PAY_ID_KEY = "pay_bizOrderNo";
-    public static final String CART_ID_KEY = "cart_Id";
+    public static final String PAY_LIST_KEY = "pay:list:";
+    public static final String CART_KEY = "cart:";
+    public static final String CART_COUNT_KEY = "cart:count:";
+    public static final String CART_FILL_KEY = "cart:fill:";
+    public static final String CART_GUEST_KEY = "cart:guest:";
+    public static final String CART_DIRTY_KEY = "cart:dirty:pending";
+    public static final String CART_FLUSHING_KEY = "cart:dirty:processing";
+    public static final String CART_FLUSH_ATTEMPTS_KEY = "cart:dirty:attempts";
+    public static final String CART_FLUSH_FAILED_KEY = "cart:dirty:failed";
+    public static final String LOCK_CART_FLUSH_KEY = "lock:cart:flush";
     public static final String USER_ID = "user:id:";
     public static final String ITEM_ID = "item:id:";
-    public static final Long SHORT_SIXTY_MINUTES = 60L;
+    public static final String ITEM_CHANGE_TOPIC = "item:change";
+    public static final String ITEM_STOCK_CHANGE_TOPIC = "item:change:stock";
+    public static final String ITEM_CHANGE_VERSION_KEY = "item:change:version";
+    public static final String ITEM_PAGE_KEY = "item:page:";
+    public static final String ITEM_COUNT_KEY = "item:count:";
+    public static final String ITEM_HOT_SNAPSHOT_KEY = "item:hot:snapshot";
+    public static final String ITEM_STOCK_KEY = "item:stock:";
+    public static final String ITEM_STOCK_FLUSH_KEY = "item:stock-flush:pending";
+    public static final String ITEM_STOCK_FLUSHING_KEY = "item:stock-flush:processing";
+    public static final String LOCK_ITEM_STOCK_FLUSH_KEY = "lock:item:stock-flush";
 
 }
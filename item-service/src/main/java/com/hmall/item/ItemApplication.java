@@ -1,10 +1,15 @@
 package com.hmall.item;
 
+import com.hmall.common.config.MqConfig;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @MapperScan("com.hmall.item.mapper")
+@Import(MqConfig.class)
+@EnableScheduling
 @SpringBootApplication
 public class ItemApplication {
     public static void main(String[] args) {
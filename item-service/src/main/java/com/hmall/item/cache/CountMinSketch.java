@@ -0,0 +1,56 @@
+package com.hmall.item.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min Sketch：用 depth 行、每行 width 个计数器估算每个key出现的次数，
+ * 估算值只会偏大不会偏小，占用内存与key的数量无关
+ */
+class CountMinSketch {
+
+    private final int depth;
+    private final int mask;
+    private final AtomicLongArray counts;
+
+    /**
+     * @param width 每行计数器数量，向上取整为2的幂
+     */
+    CountMinSketch(int depth, int width) {
+        int w = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.depth = depth;
+        this.mask = w - 1;
+        this.counts = new AtomicLongArray(depth * w);
+    }
+
+    void add(long key) {
+        long hash = mix64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int row = 0; row < depth; row++) {
+            counts.incrementAndGet(row * (mask + 1) + ((h1 + row * h2) & mask));
+        }
+    }
+
+    long estimate(long key) {
+        long hash = mix64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counts.get(row * (mask + 1) + ((h1 + row * h2) & mask)));
+        }
+        return min;
+    }
+
+    void clear() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,161 @@
+package com.hmall.item.cache;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmall.common.utils.CollUtils;
+import com.hmall.item.config.ItemCacheProperties;
+import com.hmall.item.domain.vo.HotItemVO;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static com.hmall.common.utils.RedisConstants.ITEM_HOT_SNAPSHOT_KEY;
+
+/**
+ * 热点商品探测：滑动窗口由若干个时间片组成，每个时间片一个 Count-Min Sketch，
+ * 一个商品在窗口内的访问次数为各时间片估算值之和
+ * <p>
+ * 访问次数达到阈值的商品记为候选，每个时间片结束时重新估算候选和当前热点，取前K个作为新的热点，
+ * 同时清空最旧的时间片，窗口向前滑动一格。热点id同时保存到redis，供重启后预热缓存使用
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HotItemDetector {
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 4096;
+
+    private static final Duration SNAPSHOT_TTL = Duration.ofDays(1);
+
+    private final ItemCacheProperties cacheProperties;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ScheduledExecutorService rotateExecutor = Executors.newSingleThreadScheduledExecutor(
+            r -> new Thread(r, "item-hot-detector"));
+    /**
+     * 自上次滑动以来访问次数达到阈值的商品
+     */
+    private final Set<Long> candidates = ConcurrentHashMap.newKeySet();
+
+    private CountMinSketch[] slots;
+    private volatile int current = 0;
+    /**
+     * 当前热点商品 id -> 窗口内访问次数，按次数倒序
+     */
+    private volatile Map<Long, Long> hotItems = Collections.emptyMap();
+
+    @PostConstruct
+    public void init() {
+        slots = new CountMinSketch[cacheProperties.getHotWindowSlots()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+        }
+        long period = cacheProperties.getHotSlotDuration().toMillis();
+        rotateExecutor.scheduleAtFixedRate(this::rotate, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        rotateExecutor.shutdown();
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void record(Collection<Long> ids) {
+        CountMinSketch slot = slots[current];
+        long threshold = cacheProperties.getHotThreshold();
+        int maxCandidates = cacheProperties.getHotTopK() * 4;
+        for (Long id : ids) {
+            slot.add(id);
+            // 当前时间片的次数足够大时才估算整个窗口，减少热路径上的计算
+            if (candidates.size() < maxCandidates && !hotItems.containsKey(id) && !candidates.contains(id)
+                    && slot.estimate(id) * slots.length >= threshold && estimate(id) >= threshold) {
+                candidates.add(id);
+            }
+        }
+    }
+
+    public boolean isHot(Long id) {
+        return hotItems.containsKey(id);
+    }
+
+    /**
+     * 上次保存的热点商品id，按访问次数倒序
+     */
+    public List<Long> loadSnapshot() {
+        String snapshot = stringRedisTemplate.opsForValue().get(ITEM_HOT_SNAPSHOT_KEY);
+        if (StrUtil.isBlank(snapshot)) {
+            return CollUtils.emptyList();
+        }
+        return StrUtil.split(snapshot, ',').stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    private void saveSnapshot(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForValue().set(ITEM_HOT_SNAPSHOT_KEY, CollUtils.join(ids, ","), SNAPSHOT_TTL);
+        } catch (Exception e) {
+            log.warn("保存热点商品失败", e);
+        }
+    }
+
+    /**
+     * 当前热点商品，按窗口内访问次数倒序
+     */
+    public List<HotItemVO> topK() {
+        List<HotItemVO> list = new ArrayList<>(hotItems.size());
+        hotItems.forEach((id, hits) -> list.add(new HotItemVO(id, hits)));
+        return list;
+    }
+
+    private long estimate(long id) {
+        long sum = 0;
+        for (CountMinSketch slot : slots) {
+            sum += slot.estimate(id);
+        }
+        return sum;
+    }
+
+    /**
+     * 重新计算热点，然后清空最旧的时间片并切换过去
+     */
+    private void rotate() {
+        // 1.候选和现有热点一起重新估算，低于阈值的淘汰，保留前K个
+        Set<Long> ids = new HashSet<>(candidates);
+        ids.addAll(hotItems.keySet());
+        candidates.clear();
+        long threshold = cacheProperties.getHotThreshold();
+        PriorityQueue<long[]> top = new PriorityQueue<>(Comparator.comparingLong(e -> e[1]));
+        for (Long id : ids) {
+            long hits = estimate(id);
+            if (hits < threshold) {
+                continue;
+            }
+            top.add(new long[]{id, hits});
+            if (top.size() > cacheProperties.getHotTopK()) {
+                top.poll();
+            }
+        }
+        List<long[]> sorted = new ArrayList<>(top);
+        sorted.sort((a, b) -> Long.compare(b[1], a[1]));
+        Map<Long, Long> hot = new LinkedHashMap<>(sorted.size());
+        sorted.forEach(e -> hot.put(e[0], e[1]));
+        hotItems = Collections.unmodifiableMap(hot);
+        saveSnapshot(hot.keySet());
+        // 2.窗口向前滑动
+        int next = (current + 1) % slots.length;
+        slots[next].clear();
+        current = next;
+    }
+}
@@ -0,0 +1,300 @@
+package com.hmall.item.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.common.cache.CacheClient;
+import com.hmall.common.cache.CacheRegion;
+import com.hmall.common.utils.CollUtils;
+import com.hmall.item.config.ItemCacheProperties;
+import com.hmall.item.publisher.ItemChangePublisher;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmall.common.utils.RedisConstants.ITEM_CHANGE_TOPIC;
+import static com.hmall.common.utils.RedisConstants.ITEM_STOCK_CHANGE_TOPIC;
+import static com.hmall.common.utils.RedisConstants.ITEM_ID;
+
+/**
+ * 商品两级缓存：L1为进程内caffeine缓存，L2为redis中的item:id:*，由缓存区域 {@link #REGION} 管理
+ * <p>
+ * L1容量有限，写入后定时过期，并在过期前由访问触发异步从L2刷新；
+ * 商品变更时删除L2，并通过redis的发布订阅通知所有节点清理各自的L1，同时向MQ发布商品的最新快照；
+ * 写操作应使用{@link #evictAfterCommit(Collection)}，在事务提交后删除并延迟双删；
+ * 只有库存变化时使用{@link #evictStockAfterCommit(Collection)}，通知发到单独的频道，其它节点不用重建搜索索引
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ItemCache {
+
+    /**
+     * L2所在的缓存区域，有效期、空值、重建锁等在 hm.cache.specs.item 中配置
+     */
+    public static final String REGION = "item";
+
+    /**
+     * 缓存中表示商品不存在的空值标记
+     */
+    private static final ItemDTO NULL_ITEM = new ItemDTO();
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheClient cacheClient;
+    private final ItemCacheProperties cacheProperties;
+    private final ItemIdBloomFilter bloomFilter;
+    private final MeterRegistry meterRegistry;
+    private final HotItemDetector hotItemDetector;
+    private final ItemChangePublisher changePublisher;
+
+    private final ScheduledExecutorService evictExecutor = Executors.newSingleThreadScheduledExecutor(
+            r -> new Thread(r, "item-cache-evict"));
+
+    private CacheRegion<Long, ItemDTO> redisCache;
+    private LoadingCache<Long, ItemDTO> localCache;
+    /**
+     * 热点商品单独固定在本地，有效期很短
+     */
+    private Cache<Long, ItemDTO> pinnedCache;
+
+    @PostConstruct
+    public void init() {
+        redisCache = cacheClient.region(REGION, ITEM_ID, ItemDTO.class);
+        // 1.L1未命中或需要刷新时，从L2加载
+        localCache = Caffeine.newBuilder()
+                .maximumSize(cacheProperties.getLocalMaximumSize())
+                .expireAfterWrite(cacheProperties.getLocalExpireAfterWrite())
+                .refreshAfterWrite(cacheProperties.getLocalRefreshAfterWrite())
+                .recordStats()
+                .build(new CacheLoader<Long, ItemDTO>() {
+                    @Override
+                    public ItemDTO load(Long id) {
+                        return loadAll(Collections.singletonList(id)).get(id);
+                    }
+
+                    @Override
+                    public Map<Long, ItemDTO> loadAll(Iterable<? extends Long> ids) {
+                        List<Long> idList = new ArrayList<>();
+                        ids.forEach(idList::add);
+                        return toLocal(redisCache.getAllPresent(idList));
+                    }
+                });
+        pinnedCache = Caffeine.newBuilder()
+                .maximumSize(cacheProperties.getHotTopK())
+                .expireAfterWrite(cacheProperties.getHotPinTtl())
+                .recordStats()
+                .build();
+        // 2.注册本地缓存的命中、未命中、淘汰指标，L2的指标由缓存区域按cache=item记录
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "item.l1");
+        CaffeineCacheMetrics.monitor(meterRegistry, pinnedCache, "item.pinned");
+    }
+
+    /**
+     * 依次查询L1、L2，都未命中的商品通过loader从数据库加载并回写缓存
+     * <p>
+     * 每次访问都计入热点探测，热点商品先查固定缓存，查到后固定在本地一小段时间。
+     * 布隆过滤器判定一定不存在的id直接返回，不查缓存也不查库；
+     * L2的空值缓存和并发未命中时的单次加载由 {@link CacheRegion} 处理
+     * @param ids 商品id集合
+     * @param loader 根据未命中的id从数据库批量加载商品
+     * @return 按传入顺序排列的 id -> 商品，不存在的id对应的值为null
+     */
+    public Map<Long, ItemDTO> getAll(Collection<Long> ids, Function<List<Long>, List<ItemDTO>> loader) {
+        // 1.过滤掉一定不存在的id
+        Set<Long> idSet = new LinkedHashSet<>(ids);
+        List<Long> candidates = idSet.stream().filter(bloomFilter::mightContain).collect(Collectors.toList());
+        hotItemDetector.record(candidates);
+        // 2.查询固定缓存、L1、L2
+        Map<Long, ItemDTO> cached = new HashMap<>(pinnedCache.getAllPresent(candidates));
+        List<Long> localIds = candidates.stream().filter(id -> !cached.containsKey(id)).collect(Collectors.toList());
+        cached.putAll(getAllLocal(localIds, loader));
+        pinHotItems(localIds, cached);
+        // 3.按传入顺序合并结果，空值标记转为null
+        Map<Long, ItemDTO> result = new LinkedHashMap<>(idSet.size());
+        for (Long id : idSet) {
+            ItemDTO item = cached.get(id);
+            result.put(id, item == NULL_ITEM ? null : item);
+        }
+        return result;
+    }
+
+    /**
+     * 预热：把商品加载到L1和L2，不计入热点统计
+     */
+    public void preload(Collection<Long> ids, Function<List<Long>, List<ItemDTO>> loader) {
+        getAllLocal(new ArrayList<>(new LinkedHashSet<>(ids)), loader);
+    }
+
+    /**
+     * 查询L1、L2，都未命中的从数据库加载
+     */
+    private Map<Long, ItemDTO> getAllLocal(List<Long> ids, Function<List<Long>, List<ItemDTO>> loader) {
+        if (ids.isEmpty()) {
+            return new HashMap<>();
+        }
+        Map<Long, ItemDTO> cached = new HashMap<>(localCache.getAll(ids));
+        List<Long> missIds = ids.stream().filter(id -> !cached.containsKey(id)).collect(Collectors.toList());
+        if (!missIds.isEmpty()) {
+            // L2也未命中的从数据库加载，结果同时放入L1
+            Map<Long, ItemDTO> loaded = toLocal(redisCache.getAll(missIds, loadIds -> loader.apply(loadIds).stream()
+                    .collect(Collectors.toMap(ItemDTO::getId, Function.identity()))));
+            localCache.putAll(loaded);
+            cached.putAll(loaded);
+        }
+        return cached;
+    }
+
+    /**
+     * 把这次不是从固定缓存查到的热点商品固定下来
+     */
+    private void pinHotItems(List<Long> ids, Map<Long, ItemDTO> items) {
+        for (Long id : ids) {
+            ItemDTO item = items.get(id);
+            if (item != null && item != NULL_ITEM && hotItemDetector.isHot(id)) {
+                pinnedCache.put(id, item);
+            }
+        }
+    }
+
+    /**
+     * 把从数据库查到的商品同时写入L1、L2
+     */
+    public void putAll(Collection<ItemDTO> items) {
+        if (CollUtils.isEmpty(items)) {
+            return;
+        }
+        Map<Long, ItemDTO> itemMap = items.stream().collect(Collectors.toMap(ItemDTO::getId, Function.identity()));
+        redisCache.putAll(itemMap);
+        localCache.putAll(itemMap);
+    }
+
+    /**
+     * 在当前事务提交后删除缓存，并延迟再删除一次；没有事务时立即删除
+     * <p>
+     * 提交前删除的话，并发读可能把旧数据重新写回缓存；第二次删除用来清理提交前已读到旧值、提交后才回写的请求
+     */
+    public void evictAfterCommit(Collection<Long> ids) {
+        evictAfterCommit(ids, false);
+    }
+
+    /**
+     * 与 {@link #evictAfterCommit(Collection)} 相同，用于只有库存变化的情况
+     */
+    public void evictStockAfterCommit(Collection<Long> ids) {
+        evictAfterCommit(ids, true);
+    }
+
+    private void evictAfterCommit(Collection<Long> ids, boolean stockOnly) {
+        if (CollUtils.isEmpty(ids)) {
+            return;
+        }
+        List<Long> idList = new ArrayList<>(ids);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evictTwice(idList, stockOnly);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evictTwice(idList, stockOnly);
+            }
+        });
+    }
+
+    private void evictTwice(List<Long> ids, boolean stockOnly) {
+        evict(ids, stockOnly);
+        evictExecutor.schedule(() -> {
+            try {
+                evictCache(ids, stockOnly);
+            } catch (Exception e) {
+                log.error("延迟删除商品缓存失败，ids：{}", ids, e);
+            }
+        }, cacheProperties.getDoubleDeleteDelay().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 商品变更后删除L2，广播通知所有节点清理L1，并向其它服务发布商品的最新快照
+     */
+    public void evict(Collection<Long> ids) {
+        evict(ids, false);
+    }
+
+    /**
+     * 与 {@link #evict(Collection)} 相同，用于只有库存变化的情况
+     */
+    public void evictStock(Collection<Long> ids) {
+        evict(ids, true);
+    }
+
+    private void evict(Collection<Long> ids, boolean stockOnly) {
+        if (CollUtils.isEmpty(ids)) {
+            return;
+        }
+        evictCache(ids, stockOnly);
+        if (stockOnly) {
+            changePublisher.publishStock(ids);
+        } else {
+            changePublisher.publish(ids);
+        }
+    }
+
+    /**
+     * 删除L2并广播通知所有节点清理L1，只有库存变化时发到单独的频道
+     */
+    private void evictCache(Collection<Long> ids, boolean stockOnly) {
+        // 1.删除redis缓存
+        redisCache.evict(ids);
+        // 2.清理本机L1
+        if (stockOnly) {
+            evictLocalStock(ids);
+        } else {
+            evictLocal(ids);
+        }
+        // 3.通知其它节点
+        stringRedisTemplate.convertAndSend(stockOnly ? ITEM_STOCK_CHANGE_TOPIC : ITEM_CHANGE_TOPIC, CollUtils.join(ids, ","));
+    }
+
+    /**
+     * 只清理本机的L1和固定的热点商品，收到其它节点的变更通知时调用
+     */
+    public void evictLocal(Collection<Long> ids) {
+        localCache.invalidateAll(ids);
+        pinnedCache.invalidateAll(ids);
+    }
+
+    /**
+     * 只清理本机的L1，保留固定的热点商品，只有库存变化时调用：
+     * 抢购时每次下单都会扣减库存，热点商品的库存靠固定缓存很短的有效期更新
+     */
+    public void evictLocalStock(Collection<Long> ids) {
+        localCache.invalidateAll(ids);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        evictExecutor.shutdown();
+    }
+
+    /**
+     * L2中缓存的空值在L1中用空值标记表示
+     */
+    private static Map<Long, ItemDTO> toLocal(Map<Long, ItemDTO> items) {
+        Map<Long, ItemDTO> result = new HashMap<>(items.size());
+        items.forEach((id, item) -> result.put(id, item == null ? NULL_ITEM : item));
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+package com.hmall.item.cache;
+
+import cn.hutool.core.collection.ListUtil;
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.common.utils.BeanUtils;
+import com.hmall.item.config.ItemCacheProperties;
+import com.hmall.item.mapper.ItemMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * 启动时预热商品缓存：取上次保存的热点商品，不足的按销量补齐，分批并发加载到L1和L2
+ * <p>
+ * 预热在web服务器启动之前同步执行：nacos在web服务器启动后(WebServerInitializedEvent)才注册实例，
+ * 所以预热完成或超时之前不会有流量进来，/actuator/health/readiness 也在这之后才就绪。
+ * 超时未完成的批次放弃，不影响启动
+ * <p>
+ * 清理L1的redis订阅在预热之前启动，见 {@link com.hmall.item.config.RedisListenerConfig}，预热期间的商品变更不会漏掉
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ItemCacheWarmer implements SmartLifecycle {
+
+    /**
+     * 启动阶段，早于web服务器(SmartLifecycle.DEFAULT_PHASE - 1)
+     */
+    public static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 2;
+
+    private final ItemCache itemCache;
+    private final HotItemDetector hotItemDetector;
+    private final ItemMapper itemMapper;
+    private final ItemCacheProperties cacheProperties;
+
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        running = true;
+        if (cacheProperties.getWarmUpEnabled()) {
+            warmUp();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    private void warmUp() {
+        long begin = System.currentTimeMillis();
+        // 1.确定要预热的商品
+        List<Long> ids;
+        try {
+            ids = warmUpIds();
+        } catch (Exception e) {
+            log.warn("查询需要预热的商品失败，跳过预热", e);
+            return;
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        // 2.分批并发加载
+        ExecutorService executor = Executors.newFixedThreadPool(cacheProperties.getWarmUpParallelism(),
+                r -> new Thread(r, "item-cache-warm-up"));
+        List<Future<?>> futures = ListUtil.partition(ids, cacheProperties.getWarmUpBatchSize()).stream()
+                .map(batch -> executor.submit(() -> itemCache.preload(batch,
+                        missIds -> BeanUtils.copyList(itemMapper.selectBatchIds(missIds), ItemDTO.class))))
+                .collect(Collectors.toList());
+        executor.shutdown();
+        // 3.在时间预算内等待完成
+        long deadline = begin + cacheProperties.getWarmUpTimeout().toMillis();
+        int done = 0;
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                done++;
+            } catch (TimeoutException e) {
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.warn("预热商品缓存失败", e.getCause());
+            }
+        }
+        if (done < futures.size()) {
+            executor.shutdownNow();
+        }
+        log.info("商品缓存预热结束，商品数：{}，完成批次：{}/{}，耗时：{}ms",
+                ids.size(), done, futures.size(), System.currentTimeMillis() - begin);
+    }
+
+    private List<Long> warmUpIds() {
+        int size = cacheProperties.getWarmUpSize();
+        Set<Long> ids = new LinkedHashSet<>(hotItemDetector.loadSnapshot());
+        if (ids.size() < size) {
+            ids.addAll(itemMapper.queryTopSoldIds(size));
+        }
+        return ids.stream().limit(size).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,142 @@
+package com.hmall.item.cache;
+
+import com.hmall.item.config.ItemCacheProperties;
+import com.hmall.item.mapper.ItemMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 所有商品id的布隆过滤器，用于在查缓存之前直接拒绝一定不存在的商品id
+ * <p>
+ * 启动时从数据库分批加载全部id，新增商品时追加；加载完成前认为任何id都可能存在。
+ * <p>
+ * 其它节点新增的商品通过redis发布订阅追加，消息丢失时会误判为不存在，所以记录从数据库加载到的最大id，
+ * 大于该id的一律认为可能存在，并定时从该id往后补齐
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ItemIdBloomFilter implements ApplicationRunner {
+
+    private static final int LOAD_BATCH_SIZE = 5000;
+
+    private final ItemMapper itemMapper;
+    private final ItemCacheProperties cacheProperties;
+
+    private AtomicLongArray bits;
+    private long bitSize;
+    private int hashCount;
+    private volatile boolean ready = false;
+    /**
+     * 从数据库加载到的最大id，只由加载和补齐更新，通知追加的id不计入
+     */
+    private volatile long maxLoadedId = 0L;
+
+    @PostConstruct
+    public void init() {
+        // 根据预计数量和误判率计算位数组大小和哈希函数个数
+        long n = cacheProperties.getBloomExpectedInsertions();
+        double p = cacheProperties.getBloomFalsePositiveRate();
+        bitSize = Math.max(64, (long) (-n * Math.log(p) / (Math.log(2) * Math.log(2))));
+        hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+        bits = new AtomicLongArray((int) ((bitSize + 63) / 64));
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long begin = System.currentTimeMillis();
+        long count = loadAfterMaxId();
+        ready = true;
+        log.info("商品id布隆过滤器加载完成，数量：{}，耗时：{}ms", count, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 定时补齐上次加载之后新增的商品，防止漏收的新增通知一直导致误判
+     */
+    @Scheduled(fixedDelayString = "${hm.item.cache.bloom-catch-up-millis:60000}")
+    public void catchUp() {
+        if (!ready) {
+            return;
+        }
+        long count = loadAfterMaxId();
+        if (count > 0) {
+            log.debug("商品id布隆过滤器补齐，数量：{}，最大id：{}", count, maxLoadedId);
+        }
+    }
+
+    /**
+     * 从已加载的最大id往后分批加载，返回加载的数量
+     */
+    private synchronized long loadAfterMaxId() {
+        long count = 0;
+        while (true) {
+            List<Long> ids = itemMapper.queryIdsAfter(maxLoadedId, LOAD_BATCH_SIZE);
+            if (ids.isEmpty()) {
+                return count;
+            }
+            putAll(ids);
+            count += ids.size();
+            maxLoadedId = ids.get(ids.size() - 1);
+        }
+    }
+
+    public void putAll(Collection<Long> ids) {
+        for (Long id : ids) {
+            long h1 = mix(id);
+            long h2 = mix(h1) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                long index = Math.floorMod(h1 + i * h2, bitSize);
+                setBit(index);
+            }
+        }
+    }
+
+    /**
+     * @return false表示商品一定不存在，true表示可能存在
+     */
+    public boolean mightContain(Long id) {
+        if (id == null) {
+            return false;
+        }
+        // 加载完成前，以及还没有补齐的新商品，都可能存在
+        if (!ready || id > maxLoadedId) {
+            return true;
+        }
+        long h1 = mix(id);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long index = Math.floorMod(h1 + i * h2, bitSize);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setBit(long index) {
+        int slot = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(slot);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(slot, old, old | mask));
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+}
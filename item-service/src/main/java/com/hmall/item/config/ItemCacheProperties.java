@@ -0,0 +1,89 @@
+package com.hmall.item.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "hm.item.cache")
+public class ItemCacheProperties {
+    /**
+     * 本地缓存(L1)最多缓存的商品数量
+     */
+    private Long localMaximumSize = 10000L;
+    /**
+     * 本地缓存写入后的过期时间
+     */
+    private Duration localExpireAfterWrite = Duration.ofMinutes(5);
+    /**
+     * 本地缓存写入多久后在访问时异步从redis刷新
+     */
+    private Duration localRefreshAfterWrite = Duration.ofMinutes(1);
+    /**
+     * 事务提交后第二次删除缓存的延迟，用于清理并发读在提交前回写的旧数据
+     */
+    private Duration doubleDeleteDelay = Duration.ofMillis(500);
+    /**
+     * 商品变更后延迟多久向其它服务发布快照，期间的多次变更合并为一次查询和发送
+     */
+    private Duration changePublishDelay = Duration.ofMillis(200);
+    /**
+     * 只有库存变化时发布快照的最小间隔，下单扣减库存时避免每单都读库、发消息
+     */
+    private Duration stockChangePublishInterval = Duration.ofSeconds(1);
+    /**
+     * 布隆过滤器预计容纳的商品数量
+     */
+    private Long bloomExpectedInsertions = 1000000L;
+    /**
+     * 布隆过滤器的误判率
+     */
+    private Double bloomFalsePositiveRate = 0.01;
+    /**
+     * 按默认排序分页查询时，前多少页的结果会被缓存
+     */
+    private Integer pageCacheMaxPageNo = 5;
+    /**
+     * 热点探测滑动窗口中每个时间片的长度
+     */
+    private Duration hotSlotDuration = Duration.ofSeconds(10);
+    /**
+     * 热点探测滑动窗口由多少个时间片组成
+     */
+    private Integer hotWindowSlots = 6;
+    /**
+     * 窗口内访问次数达到该值才可能成为热点
+     */
+    private Long hotThreshold = 1000L;
+    /**
+     * 最多保留多少个热点商品
+     */
+    private Integer hotTopK = 100;
+    /**
+     * 热点商品固定在本地缓存中的有效期，期间不受L1容量淘汰影响，也不回源redis
+     */
+    private Duration hotPinTtl = Duration.ofSeconds(3);
+    /**
+     * 启动时是否预热缓存
+     */
+    private Boolean warmUpEnabled = true;
+    /**
+     * 预热的商品数量，优先取上次保存的热点商品，不足的按销量补齐
+     */
+    private Integer warmUpSize = 2000;
+    /**
+     * 预热时每批加载的商品数量
+     */
+    private Integer warmUpBatchSize = 200;
+    /**
+     * 预热的并发线程数
+     */
+    private Integer warmUpParallelism = 4;
+    /**
+     * 预热最多等待多久，超时后不再等待，服务照常就绪
+     */
+    private Duration warmUpTimeout = Duration.ofSeconds(10);
+}
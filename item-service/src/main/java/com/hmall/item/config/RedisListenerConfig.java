@@ -0,0 +1,35 @@
+package com.hmall.item.config;
+
+import com.hmall.item.cache.ItemCacheWarmer;
+import com.hmall.item.listeners.ItemChangeListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.Arrays;
+
+import static com.hmall.common.utils.RedisConstants.ITEM_CHANGE_TOPIC;
+import static com.hmall.common.utils.RedisConstants.ITEM_STOCK_CHANGE_TOPIC;
+
+@Configuration
+public class RedisListenerConfig {
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory, ItemChangeListener itemChangeListener) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer() {
+            /**
+             * 在缓存预热之前订阅，预热期间其它节点发出的清理通知不会漏掉
+             */
+            @Override
+            public int getPhase() {
+                return ItemCacheWarmer.PHASE - 1;
+            }
+        };
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(itemChangeListener,
+                Arrays.asList(new ChannelTopic(ITEM_CHANGE_TOPIC), new ChannelTopic(ITEM_STOCK_CHANGE_TOPIC)));
+        return container;
+    }
+}
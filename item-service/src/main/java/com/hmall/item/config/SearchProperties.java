@@ -0,0 +1,63 @@
+package com.hmall.item.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "hm.search")
+public class SearchProperties {
+    /**
+     * 是否启用内存索引搜索，关闭后搜索直接查数据库
+     */
+    private Boolean indexEnabled = true;
+    /**
+     * 已删除或已更新的旧文档超过该比例时，全量重建索引回收空间
+     */
+    private Double rebuildDeadRatio = 0.5;
+    /**
+     * 收到商品变更后延迟多久更新索引，期间的多次变更合并为一次查询
+     */
+    private Duration refreshDelay = Duration.ofMillis(200);
+    /**
+     * 价格聚合的区间边界，单位：分，相邻两个值构成一个左闭右开区间，最后一个值以上为一个区间
+     */
+    private List<Integer> priceBuckets = Arrays.asList(0, 10000, 50000, 100000, 200000, 500000);
+    /**
+     * 聚合结果最多缓存多少个不同的查询条件
+     */
+    private Long facetCacheSize = 1000L;
+    /**
+     * 聚合结果缓存的有效期，商品变更时也会整体失效
+     */
+    private Duration facetCacheTtl = Duration.ofMinutes(1);
+    /**
+     * 商品变化后重建前缀联想数据的检查间隔，单位：毫秒
+     */
+    private Long suggestRefreshMillis = 30000L;
+    /**
+     * BM25 的词频饱和参数，越大词频的影响越持久
+     */
+    private Double bm25K1 = 1.2;
+    /**
+     * BM25 的长度归一化参数，0 表示不考虑名称长度，1 表示完全按长度归一化
+     */
+    private Double bm25B = 0.75;
+    /**
+     * 销量加成系数，文本得分乘以 1 + soldBoost * ln(1 + 销量) + commentBoost * ln(1 + 评论数)
+     */
+    private Double soldBoost = 0.1;
+    /**
+     * 评论数加成系数
+     */
+    private Double commentBoost = 0.05;
+    /**
+     * 广告商品的得分倍数
+     */
+    private Double adBoost = 1.2;
+}
@@ -0,0 +1,51 @@
+package com.hmall.item.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "hm.item.stock")
+public class StockProperties {
+    /**
+     * 库存扣减方式：db 直接更新数据库；redis 在redis中预扣，再异步批量同步到数据库；
+     * sharded 热点商品的库存拆成多段分别扣减，其余商品同 db；
+     * group 把几毫秒内到达的扣减请求合并到一个事务中执行
+     */
+    private String mode = "db";
+    /**
+     * redis模式下，把预扣记录同步到数据库的间隔，单位：毫秒
+     */
+    private Long flushIntervalMillis = 200L;
+    /**
+     * redis模式下，每批最多同步多少条预扣记录
+     */
+    private Integer flushBatchSize = 500;
+    /**
+     * 同步锁的有效期，应大于一批记录写入数据库的耗时
+     */
+    private Duration flushLockTtl = Duration.ofSeconds(10);
+    /**
+     * sharded模式下，各商品分段数和库存合计的本地缓存有效期，查询商品时返回的库存最多滞后这么久
+     */
+    private Duration shardSummaryCacheTtl = Duration.ofSeconds(1);
+    /**
+     * sharded模式下，一个商品最多拆成多少段
+     */
+    private Integer maxShardCount = 64;
+    /**
+     * group模式下，第一个请求到达后最多再等待多久收集同一批的请求，单位：毫秒
+     */
+    private Long groupCommitWindowMillis = 5L;
+    /**
+     * group模式下，一批最多合并多少个请求
+     */
+    private Integer groupCommitMaxBatch = 200;
+    /**
+     * group模式下，调用方等待扣减结果的超时时间
+     */
+    private Duration groupCommitTimeout = Duration.ofSeconds(3);
+}
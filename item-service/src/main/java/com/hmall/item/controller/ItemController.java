@@ -1,19 +1,29 @@
 package com.hmall.item.controller;
 
 
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import cn.hutool.core.util.StrUtil;
 import com.hmall.api.dto.ItemDTO;
 import com.hmall.api.dto.OrderDetailDTO;
 import com.hmall.common.domain.PageDTO;
 import com.hmall.common.domain.PageQuery;
-import com.hmall.common.utils.BeanUtils;
-import com.hmall.item.domain.po.Item;
+import com.hmall.item.domain.query.ItemSeekQuery;
+import com.hmall.item.domain.vo.ItemImportResultVO;
+import com.hmall.item.domain.vo.ItemSeekPageVO;
+import com.hmall.item.service.IItemBulkService;
 import com.hmall.item.service.IItemService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.Valid;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @Api(tags = "商品管理相关接口")
@@ -23,18 +33,45 @@ import java.util.List;
 public class ItemController {
 
     private final IItemService itemService;
+    private final IItemBulkService itemBulkService;
 
     @ApiOperation("分页查询商品")
     @GetMapping("/page")
     public PageDTO<ItemDTO> queryItemByPage(PageQuery query,@RequestHeader(value="true",required = false) String truth) {
         System.out.println("truth:"+truth);
-        // 1.分页查询
-        //TODO 使用redis先查询缓存，若没有再查数据库，之后再写入缓存
+        // 分页查询，前几页和总数走缓存
+        return itemService.queryItemByPage(query);
+    }
 
-        Page<Item> result = itemService.page(query.toMpPage("update_time", false));
+    @ApiOperation("游标分页查询商品，按更新时间倒序，适合向后翻很多页")
+    @GetMapping("/page/seek")
+    public ItemSeekPageVO queryItemBySeek(@Valid ItemSeekQuery query) {
+        return itemService.queryItemBySeek(query);
+    }
 
-        // 2.封装并返回
-        return PageDTO.of(result, ItemDTO.class);
+    @ApiOperation("批量导入商品，请求体为NDJSON(每行一个商品)或带表头的CSV，边读边分批写入数据库")
+    @PostMapping("/import")
+    public ItemImportResultVO importItems(@RequestParam(value = "format", required = false) String format,
+                                          HttpServletRequest request) throws IOException {
+        // 未指定格式时按Content-Type判断
+        if (StrUtil.isBlank(format)) {
+            format = StrUtil.containsIgnoreCase(request.getContentType(), "csv")
+                    ? IItemBulkService.FORMAT_CSV : IItemBulkService.FORMAT_NDJSON;
+        }
+        return itemBulkService.importItems(request.getInputStream(), format);
+    }
+
+    @ApiOperation("导出全部商品，格式为NDJSON或CSV，按id分批查询并边查边写出")
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportItems(
+            @RequestParam(value = "format", defaultValue = IItemBulkService.FORMAT_NDJSON) String format) {
+        MediaType mediaType = IItemBulkService.FORMAT_CSV.equals(format)
+                ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                : new MediaType("application", "x-ndjson", StandardCharsets.UTF_8);
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=items." + format)
+                .body(out -> itemBulkService.exportItems(out, format));
     }
 
     @ApiOperation("根据id批量查询商品")
@@ -47,36 +84,39 @@ public class ItemController {
     @ApiOperation("根据id查询商品")
     @GetMapping("{id}")
     public ItemDTO queryItemById(@PathVariable("id") Long id) {
-        return BeanUtils.copyBean(itemService.getById(id), ItemDTO.class);
+        return itemService.queryItemById(id);
     }
 
     @ApiOperation("新增商品")
     @PostMapping
     public void saveItem(@RequestBody ItemDTO item) {
         // 新增
-        itemService.save(BeanUtils.copyBean(item, Item.class));
+        itemService.saveItem(item);
     }
 
     @ApiOperation("更新商品状态")
     @PutMapping("/status/{id}/{status}")
     public void updateItemStatus(@PathVariable("id") Long id, @PathVariable("status") Integer status){
-        Item item = new Item();
-        item.setId(id);
-        item.setStatus(status);
-        itemService.updateById(item);
+        itemService.updateItemStatus(id, status);
     }
 
     @ApiOperation("更新商品")
     @PutMapping
     public void updateItem(@RequestBody ItemDTO item) {
         // 更新
-        itemService.updateById(BeanUtils.copyBean(item, Item.class));
+        itemService.updateItem(item);
     }
 
     @ApiOperation("根据id删除商品")
     @DeleteMapping("{id}")
     public void deleteItemById(@PathVariable("id") Long id) {
-        itemService.removeById(id);
+        itemService.deleteItemById(id);
+    }
+
+    @ApiOperation("把热点商品的库存拆成多段，分散扣减时的行锁竞争，分段数为1时取消拆分")
+    @PutMapping("/stock/shards/{id}")
+    public void reshardStock(@PathVariable("id") Long id, @RequestParam("count") Integer count) {
+        itemService.reshardStock(id, count);
     }
 
     @ApiOperation("批量扣减库存")
@@ -7,14 +7,21 @@ import com.hmall.api.dto.ItemDTO;
 import com.hmall.common.domain.PageDTO;
 import com.hmall.item.domain.po.Item;
 import com.hmall.item.domain.query.ItemPageQuery;
+import com.hmall.item.domain.vo.ItemFacetVO;
+import com.hmall.item.domain.vo.SuggestionVO;
+import com.hmall.item.search.ItemSearchIndex;
 import com.hmall.item.service.IItemService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.validation.Valid;
+import java.util.List;
+
 @Api(tags = "搜索相关接口")
 @RestController
 @RequestMapping("/search")
@@ -22,10 +29,19 @@ import org.springframework.web.bind.annotation.RestController;
 public class SearchController {
 
     private final IItemService itemService;
+    private final ItemSearchIndex searchIndex;
 
     @ApiOperation("搜索商品")
     @GetMapping("/list")
-    public PageDTO<ItemDTO> search(ItemPageQuery query) {
+    public PageDTO<ItemDTO> search(@Valid ItemPageQuery query) {
+        // 索引加载完成后走内存索引
+        if (searchIndex.isReady()) {
+            return searchIndex.search(query);
+        }
+        // 数据库不支持按相关度排序，退回默认排序
+        if (ItemSearchIndex.SORT_BY_SCORE.equals(query.getSortBy())) {
+            query.setSortBy(null);
+        }
         // 分页查询
         Page<Item> result = itemService.lambdaQuery()
                 .like(StrUtil.isNotBlank(query.getKey()), Item::getName, query.getKey())
@@ -37,4 +53,21 @@ public class SearchController {
         // 封装并返回
         return PageDTO.of(result, ItemDTO.class);
     }
+
+    @ApiOperation("搜索结果的品牌、分类、价格区间统计")
+    @GetMapping("/facets")
+    public ItemFacetVO facets(@Valid ItemPageQuery query) {
+        // 索引未加载完成时不做统计，避免额外的 GROUP BY 查询
+        if (!searchIndex.isReady()) {
+            return new ItemFacetVO();
+        }
+        return searchIndex.facets(query);
+    }
+
+    @ApiOperation("搜索联想，返回以前缀开头的热门商品名称、品牌、分类")
+    @GetMapping("/suggest")
+    public List<SuggestionVO> suggest(@RequestParam("prefix") String prefix,
+                                      @RequestParam(value = "size", defaultValue = "10") Integer size) {
+        return searchIndex.suggest(prefix, Math.min(Math.max(size, 1), 50));
+    }
 }
@@ -0,0 +1,36 @@
+package com.hmall.item.domain.po;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * 商品分段库存表，热点商品的库存拆成多段，扣减时分散到不同的行锁上
+ * </p>
+ * 建表脚本见 db/item_stock_shard.sql
+ */
+@Data
+@Accessors(chain = true)
+@TableName("item_stock_shard")
+public class ItemStockShard implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 商品id
+     */
+    private Long itemId;
+
+    /**
+     * 分段编号，从0开始
+     */
+    private Integer shardNo;
+
+    /**
+     * 分段库存
+     */
+    private Integer stock;
+}
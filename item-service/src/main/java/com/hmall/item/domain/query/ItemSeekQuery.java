@@ -0,0 +1,25 @@
+package com.hmall.item.domain.query;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+@Data
+@ApiModel(description = "商品游标分页查询条件")
+public class ItemSeekQuery {
+    @ApiModelProperty("每页查询数量")
+    @Min(value = 1, message = "每页查询数量不能小于1")
+    @Max(value = 1000, message = "每页查询数量不能大于1000")
+    private Integer pageSize = 20;
+    @ApiModelProperty("上一页最后一条商品的更新时间戳(毫秒)，查询第一页时不传")
+    private Long lastUpdateTime;
+    @ApiModelProperty("上一页最后一条商品的id，查询第一页时不传")
+    private Long lastId;
+
+    public boolean isFirstPage() {
+        return lastUpdateTime == null || lastId == null;
+    }
+}
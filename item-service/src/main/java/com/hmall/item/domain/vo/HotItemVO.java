@@ -0,0 +1,18 @@
+package com.hmall.item.domain.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel(description = "热点商品")
+public class HotItemVO {
+    @ApiModelProperty("商品id")
+    private Long id;
+    @ApiModelProperty("统计窗口内的访问次数(估算值)")
+    private Long hits;
+}
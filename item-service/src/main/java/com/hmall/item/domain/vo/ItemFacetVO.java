@@ -0,0 +1,36 @@
+package com.hmall.item.domain.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@ApiModel(description = "搜索结果的聚合统计")
+public class ItemFacetVO {
+    @ApiModelProperty("总条数")
+    private Long total;
+    @ApiModelProperty("品牌 -> 商品数量，按数量倒序")
+    private Map<String, Long> brands;
+    @ApiModelProperty("分类 -> 商品数量，按数量倒序")
+    private Map<String, Long> categories;
+    @ApiModelProperty("价格区间统计")
+    private List<PriceBucket> prices;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @ApiModel(description = "价格区间")
+    public static class PriceBucket {
+        @ApiModelProperty("区间最小价格(包含)，单位：分")
+        private Integer from;
+        @ApiModelProperty("区间最大价格(不包含)，为空表示不限，单位：分")
+        private Integer to;
+        @ApiModelProperty("商品数量")
+        private Long count;
+    }
+}
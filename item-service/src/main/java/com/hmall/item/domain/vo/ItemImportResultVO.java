@@ -0,0 +1,34 @@
+package com.hmall.item.domain.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ApiModel(description = "商品批量导入结果")
+public class ItemImportResultVO {
+    @ApiModelProperty("读取的数据行数")
+    private Long total = 0L;
+    @ApiModelProperty("写入成功的行数")
+    private Long success = 0L;
+    @ApiModelProperty("失败的行数")
+    private Long failed = 0L;
+    @ApiModelProperty("失败原因，最多返回前1000条")
+    private List<RowError> errors = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @ApiModel(description = "导入失败的行")
+    public static class RowError {
+        @ApiModelProperty("行号，从1开始，CSV的表头也算一行")
+        private Long line;
+        @ApiModelProperty("失败原因")
+        private String message;
+    }
+}
@@ -0,0 +1,21 @@
+package com.hmall.item.domain.vo;
+
+import com.hmall.api.dto.ItemDTO;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@ApiModel(description = "商品游标分页结果")
+public class ItemSeekPageVO {
+    @ApiModelProperty("总条数")
+    private Long total;
+    @ApiModelProperty("当前页数据")
+    private List<ItemDTO> list;
+    @ApiModelProperty("下一页游标：本页最后一条商品的更新时间戳(毫秒)，为空表示没有下一页")
+    private Long nextUpdateTime;
+    @ApiModelProperty("下一页游标：本页最后一条商品的id，为空表示没有下一页")
+    private Long nextId;
+}
@@ -0,0 +1,20 @@
+package com.hmall.item.domain.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel(description = "搜索联想词")
+public class SuggestionVO {
+    @ApiModelProperty("联想词")
+    private String text;
+    @ApiModelProperty("类型：name-商品名称，brand-品牌，category-分类")
+    private String type;
+    @ApiModelProperty("权重，由销量和评论数累加得到")
+    private Long weight;
+}
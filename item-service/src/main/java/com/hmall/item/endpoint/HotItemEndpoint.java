@@ -0,0 +1,26 @@
+package com.hmall.item.endpoint;
+
+import com.hmall.item.cache.HotItemDetector;
+import com.hmall.item.domain.vo.HotItemVO;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * /actuator/hotitems：当前热点商品及其访问次数
+ */
+@Component
+@RequiredArgsConstructor
+@Endpoint(id = "hotitems")
+public class HotItemEndpoint {
+
+    private final HotItemDetector hotItemDetector;
+
+    @ReadOperation
+    public List<HotItemVO> hotItems() {
+        return hotItemDetector.topK();
+    }
+}
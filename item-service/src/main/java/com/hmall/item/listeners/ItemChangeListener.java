@@ -0,0 +1,49 @@
+package com.hmall.item.listeners;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmall.common.utils.CollUtils;
+import com.hmall.common.utils.RedisConstants;
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.cache.ItemIdBloomFilter;
+import com.hmall.item.search.ItemSearchIndex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 监听商品变更广播，消息内容为逗号分隔的商品id。只有库存变化的通知在 {@link RedisConstants#ITEM_STOCK_CHANGE_TOPIC} 频道，
+ * 只清理L1，保留固定的热点商品：商品已经存在，搜索结果中的库存也不要求实时，不用更新布隆过滤器和搜索索引
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ItemChangeListener implements MessageListener {
+    private final ItemCache itemCache;
+    private final ItemIdBloomFilter bloomFilter;
+    private final ItemSearchIndex searchIndex;
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        List<Long> ids = CollUtils.convertToLong(StrUtil.split(body, ','));
+        if (CollUtils.isEmpty(ids)) {
+            return;
+        }
+        log.debug("收到商品变更通知，ids：{}", ids);
+        // 只有库存变化
+        if (RedisConstants.ITEM_STOCK_CHANGE_TOPIC.equals(new String(message.getChannel(), StandardCharsets.UTF_8))) {
+            itemCache.evictLocalStock(ids);
+            return;
+        }
+        itemCache.evictLocal(ids);
+        // 新增的商品可能是其它节点写入的，同步加入本机的布隆过滤器
+        bloomFilter.putAll(ids);
+        // 更新搜索索引
+        searchIndex.refresh(ids);
+    }
+}
@@ -3,7 +3,12 @@ package com.hmall.item.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.hmall.api.dto.OrderDetailDTO;
 import com.hmall.item.domain.po.Item;
-import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.annotations.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -15,6 +20,79 @@ import org.apache.ibatis.annotations.Update;
  */
 public interface ItemMapper extends BaseMapper<Item> {
 
-    @Update("UPDATE item SET stock = stock - #{num} WHERE id = #{itemId}")
-    void updateStock(OrderDetailDTO orderDetail);
+    /**
+     * 库存不足时不扣减，返回0
+     */
+    @Update("UPDATE item SET stock = stock - #{num} WHERE id = #{itemId} AND stock >= #{num}")
+    int updateStock(OrderDetailDTO orderDetail);
+
+    /**
+     * 与 updateStock 相同，但商品已拆分为分段库存时不扣减，返回0
+     */
+    @Update("UPDATE item SET stock = stock - #{num} WHERE id = #{itemId} AND stock >= #{num} " +
+            "AND NOT EXISTS (SELECT 1 FROM item_stock_shard s WHERE s.item_id = #{itemId})")
+    int updateUnshardedStock(@Param("itemId") Long itemId, @Param("num") int num);
+
+    /**
+     * 按id顺序加锁，多个事务同时锁多个商品时不会死锁
+     */
+    @Select("<script>SELECT id, stock FROM item WHERE id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            " ORDER BY id FOR UPDATE</script>")
+    List<Item> selectStockForUpdate(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 锁住商品并读取当前库存，用于计算直接修改库存前后的变化量
+     * @return id -> 库存，不存在的商品不在结果中
+     */
+    default Map<Long, Integer> lockStocks(Collection<Long> ids) {
+        return selectStockForUpdate(ids).stream()
+                .collect(Collectors.toMap(Item::getId, i -> i.getStock() == null ? 0 : i.getStock()));
+    }
+
+    @Select("SELECT * FROM item WHERE id = #{id} FOR UPDATE")
+    Item selectForUpdate(@Param("id") Long id);
+
+    /**
+     * 多行插入，回填自增id
+     */
+    @Insert("<script>INSERT INTO item (name, price, stock, image, category, brand, spec, sold, comment_count, isAD, status) VALUES " +
+            "<foreach collection='items' item='i' separator=','>" +
+            "(#{i.name}, #{i.price}, #{i.stock}, #{i.image}, #{i.category}, #{i.brand}, #{i.spec}, #{i.sold}, #{i.commentCount}, #{i.isAD}, #{i.status})" +
+            "</foreach></script>")
+    @Options(useGeneratedKeys = true, keyProperty = "items.id", keyColumn = "id")
+    int insertBatch(@Param("items") List<Item> items);
+
+    /**
+     * 多行插入或更新，按id判断是否存在，更新时为空的字段保留原值
+     */
+    @Insert("<script>INSERT INTO item (id, name, price, stock, image, category, brand, spec, sold, comment_count, isAD, status) VALUES " +
+            "<foreach collection='items' item='i' separator=','>" +
+            "(#{i.id}, #{i.name}, #{i.price}, #{i.stock}, #{i.image}, #{i.category}, #{i.brand}, #{i.spec}, #{i.sold}, #{i.commentCount}, #{i.isAD}, #{i.status})" +
+            "</foreach> ON DUPLICATE KEY UPDATE " +
+            "name = COALESCE(VALUES(name), name), price = COALESCE(VALUES(price), price), " +
+            "stock = COALESCE(VALUES(stock), stock), image = COALESCE(VALUES(image), image), " +
+            "category = COALESCE(VALUES(category), category), brand = COALESCE(VALUES(brand), brand), " +
+            "spec = COALESCE(VALUES(spec), spec), sold = COALESCE(VALUES(sold), sold), " +
+            "comment_count = COALESCE(VALUES(comment_count), comment_count), isAD = COALESCE(VALUES(isAD), isAD), " +
+            "status = COALESCE(VALUES(status), status)</script>")
+    int upsertBatch(@Param("items") List<Item> items);
+
+    /**
+     * 一条语句扣减多个商品的库存，用于把已在redis中预扣的库存同步回数据库，同一商品只能出现一次
+     */
+    @Update("<script>UPDATE item SET stock = stock - CASE id " +
+            "<foreach collection='items' item='i'>WHEN #{i.itemId} THEN #{i.num} </foreach>END " +
+            "WHERE id IN <foreach collection='items' item='i' open='(' separator=',' close=')'>#{i.itemId}</foreach>" +
+            "</script>")
+    int batchDeductStock(@Param("items") List<OrderDetailDTO> items);
+
+    @Select("SELECT id FROM item WHERE id > #{lastId} ORDER BY id LIMIT #{limit}")
+    List<Long> queryIdsAfter(@Param("lastId") Long lastId, @Param("limit") int limit);
+
+    @Select("SELECT id FROM item WHERE status = 1 ORDER BY sold DESC LIMIT #{limit}")
+    List<Long> queryTopSoldIds(@Param("limit") int limit);
+
+    @Select("SELECT * FROM item WHERE id > #{lastId} ORDER BY id LIMIT #{limit}")
+    List<Item> queryAfter(@Param("lastId") Long lastId, @Param("limit") int limit);
 }
@@ -0,0 +1,49 @@
+package com.hmall.item.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmall.item.domain.po.ItemStockShard;
+import org.apache.ibatis.annotations.*;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>
+ * 商品分段库存表 Mapper 接口
+ * </p>
+ */
+public interface ItemStockShardMapper extends BaseMapper<ItemStockShard> {
+
+    /**
+     * 分段库存不足时不扣减，返回0
+     */
+    @Update("UPDATE item_stock_shard SET stock = stock - #{num} " +
+            "WHERE item_id = #{itemId} AND shard_no = #{shardNo} AND stock >= #{num}")
+    int deduct(@Param("itemId") Long itemId, @Param("shardNo") int shardNo, @Param("num") int num);
+
+    @Select("SELECT * FROM item_stock_shard WHERE item_id = #{itemId} ORDER BY shard_no FOR UPDATE")
+    List<ItemStockShard> lockByItemId(@Param("itemId") Long itemId);
+
+    @Select("<script>SELECT * FROM item_stock_shard WHERE item_id IN " +
+            "<foreach collection='itemIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    List<ItemStockShard> queryByItemIds(@Param("itemIds") Collection<Long> itemIds);
+
+    @Update("UPDATE item_stock_shard SET stock = #{stock} WHERE item_id = #{itemId} AND shard_no = #{shardNo}")
+    int updateShardStock(ItemStockShard shard);
+
+    @Insert("<script>INSERT INTO item_stock_shard (item_id, shard_no, stock) VALUES " +
+            "<foreach collection='shards' item='s' separator=','>(#{s.itemId}, #{s.shardNo}, #{s.stock})</foreach>" +
+            "</script>")
+    int insertBatch(@Param("shards") List<ItemStockShard> shards);
+
+    @Delete("DELETE FROM item_stock_shard WHERE item_id = #{itemId}")
+    int deleteByItemId(@Param("itemId") Long itemId);
+
+    /**
+     * 查询分段库存表是否存在，存在为1
+     */
+    @Select("SELECT COUNT(*) FROM information_schema.tables WHERE table_schema = DATABASE() " +
+            "AND table_name = 'item_stock_shard'")
+    int countTable();
+}
@@ -0,0 +1,157 @@
+package com.hmall.item.publisher;
+
+import cn.hutool.core.collection.ListUtil;
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.api.dto.ItemSnapshotDTO;
+import com.hmall.common.utils.BeanUtils;
+import com.hmall.common.utils.CollUtils;
+import com.hmall.item.config.ItemCacheProperties;
+import com.hmall.item.mapper.ItemMapper;
+import com.hmall.item.stock.StockEngine;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmall.common.utils.MqConstants.ITEM_CHANGE_KEY;
+import static com.hmall.common.utils.MqConstants.ITEM_EXCHANGE;
+import static com.hmall.common.utils.RedisConstants.ITEM_CHANGE_VERSION_KEY;
+
+/**
+ * 商品变更后，把最新的价格、状态、库存发布到 {@link com.hmall.common.utils.MqConstants#ITEM_EXCHANGE}，
+ * 供其它服务(如购物车)在本地维护商品快照，不必每次远程查询
+ * <p>
+ * 由 {@link com.hmall.item.cache.ItemCache#evict(Collection)} 在清理缓存时调用，事务已提交，
+ * 在单独的线程中读库并发送，不阻塞写请求；发送失败只记录日志，订阅方的快照有过期时间兜底
+ * <p>
+ * 变更的id先放入待发布集合，延迟一小段时间后合并为一次查询和发送。只有库存变化时(每次下单都会触发)
+ * 按更长的间隔单独节流，抢购时每个间隔最多读一次库、发一次消息。每种变更最多只有一个待执行的任务，
+ * 线程池的队列不会超过两个任务，积压的只是去重后的商品id
+ * <p>
+ * 快照版本取自redis中的全局递增序号，在读库之前获取：各节点的时钟不一致，不能用时间戳比较先后。
+ * 版本更小的快照读库也更早或与之并发，之后提交的变更必然会以更大的版本再次发布
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ItemChangePublisher {
+
+    /**
+     * 每条消息最多包含的商品数
+     */
+    private static final int BATCH_SIZE = 500;
+    /**
+     * 商品不存在时发布的状态：3-删除
+     */
+    private static final int STATUS_DELETED = 3;
+
+    private final ItemMapper itemMapper;
+    private final RabbitTemplate rabbitTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * 库存扣减模块依赖商品缓存，延迟获取避免循环依赖
+     */
+    private final ObjectProvider<StockEngine> stockEngine;
+    private final ItemCacheProperties cacheProperties;
+
+    private final Set<Long> pendingChanges = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean changeScheduled = new AtomicBoolean(false);
+    private final Set<Long> pendingStockChanges = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean stockChangeScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService publishExecutor = Executors.newSingleThreadScheduledExecutor(
+            r -> new Thread(r, "item-change-publish"));
+
+    /**
+     * 延迟 hm.item.cache.change-publish-delay 后读取商品的最新数据并发布，期间的多次变更合并发布
+     * @param ids 发生变更的商品id
+     */
+    public void publish(Collection<Long> ids) {
+        schedule(ids, pendingChanges, changeScheduled, cacheProperties.getChangePublishDelay());
+    }
+
+    /**
+     * 与 {@link #publish(Collection)} 相同，用于只有库存变化的情况，
+     * 按 hm.item.cache.stock-change-publish-interval 节流
+     */
+    public void publishStock(Collection<Long> ids) {
+        schedule(ids, pendingStockChanges, stockChangeScheduled, cacheProperties.getStockChangePublishInterval());
+    }
+
+    private void schedule(Collection<Long> ids, Set<Long> pending, AtomicBoolean scheduled, Duration delay) {
+        if (CollUtils.isEmpty(ids)) {
+            return;
+        }
+        pending.addAll(ids);
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            publishExecutor.schedule(() -> publishPending(pending, scheduled), delay.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 正在关闭，不再发布
+            scheduled.set(false);
+        }
+    }
+
+    private void publishPending(Set<Long> pending, AtomicBoolean scheduled) {
+        // 先清除标记再取出，取出之后到达的变更会安排下一次
+        scheduled.set(false);
+        List<Long> ids = new ArrayList<>(pending);
+        pending.removeAll(ids);
+        for (List<Long> batch : ListUtil.partition(ids, BATCH_SIZE)) {
+            try {
+                rabbitTemplate.convertAndSend(ITEM_EXCHANGE, ITEM_CHANGE_KEY, snapshot(batch));
+            } catch (Exception e) {
+                log.error("发布商品变更消息失败，ids：{}", batch, e);
+            }
+        }
+    }
+
+    /**
+     * 从数据库读取商品的快照，库存不在商品表中维护时替换为实际库存，已删除的商品以删除状态发布
+     */
+    private List<ItemSnapshotDTO> snapshot(List<Long> ids) {
+        // 1.读库之前获取版本，保证不会比读到的数据更新
+        Long version = stringRedisTemplate.opsForValue().increment(ITEM_CHANGE_VERSION_KEY);
+        List<ItemDTO> items = stockEngine.getObject()
+                .fillStock(BeanUtils.copyList(itemMapper.selectBatchIds(ids), ItemDTO.class));
+        Map<Long, ItemDTO> itemMap = items.stream().collect(Collectors.toMap(ItemDTO::getId, Function.identity()));
+        // 2.按id组装快照
+        List<ItemSnapshotDTO> snapshots = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            ItemSnapshotDTO snapshot = new ItemSnapshotDTO();
+            snapshot.setId(id);
+            snapshot.setVersion(version);
+            ItemDTO item = itemMap.get(id);
+            if (item == null) {
+                snapshot.setStatus(STATUS_DELETED);
+                snapshot.setStock(0);
+            } else {
+                snapshot.setPrice(item.getPrice());
+                snapshot.setStatus(item.getStatus());
+                snapshot.setStock(item.getStock());
+            }
+            snapshots.add(snapshot);
+        }
+        return snapshots;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        publishExecutor.shutdown();
+    }
+}
@@ -0,0 +1,25 @@
+package com.hmall.item.search;
+
+import com.hmall.api.dto.ItemDTO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 索引中的一条商品文档
+ */
+@Getter
+@AllArgsConstructor
+class ItemDoc {
+    /**
+     * 返回给前端的商品数据
+     */
+    private final ItemDTO item;
+    /**
+     * 转小写后的名称，用于精确校验关键字
+     */
+    private final String normalizedName;
+    /**
+     * 更新时间戳(毫秒)，用于默认排序
+     */
+    private final long updateTime;
+}
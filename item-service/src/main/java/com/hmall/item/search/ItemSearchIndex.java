@@ -0,0 +1,597 @@
+package com.hmall.item.search;
+
+import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.common.domain.PageDTO;
+import com.hmall.common.exception.BadRequestException;
+import com.hmall.common.utils.BeanUtils;
+import com.hmall.common.utils.CollUtils;
+import com.hmall.item.config.SearchProperties;
+import com.hmall.item.domain.po.Item;
+import com.hmall.item.domain.query.ItemPageQuery;
+import com.hmall.item.domain.vo.ItemFacetVO;
+import com.hmall.item.domain.vo.SuggestionVO;
+import com.hmall.item.mapper.ItemMapper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * 商品搜索的内存索引
+ * <p>
+ * 名称建二元组倒排表，品牌、分类、状态建位图，价格按值有序存放用于区间过滤。
+ * 启动时从数据库全量加载，之后根据商品变更通知增量更新；更新时旧文档只做删除标记，
+ * 旧文档占比过高时在后台全量重建。变更通知先合并，短时间内的多次变更只查一次库；只有库存变化的通知不会触发更新，
+ * 搜索结果中的库存可能滞后，以商品详情为准。有关键字时按 BM25 文本得分结合销量、评论、广告加成排序。同一个结果集上还可以聚合出品牌、分类、价格区间的数量；
+ * 另外维护一份按销量和评论数加权的前缀联想数据
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ItemSearchIndex implements ApplicationRunner {
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+    private static final Integer ON_SALE = 1;
+    /**
+     * 按相关度排序的排序字段名
+     */
+    public static final String SORT_BY_SCORE = "score";
+
+    private final ItemMapper itemMapper;
+    private final SearchProperties searchProperties;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object refreshMutex = new Object();
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+    /**
+     * 等待合并更新的商品id
+     */
+    private final Set<Long> pendingRefresh = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+
+    private final ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor(
+            r -> new Thread(r, "item-search-refresh"));
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "item-search-rebuild"));
+
+    private IndexData data = new IndexData();
+    /**
+     * 按规范化后的查询条件缓存聚合结果，索引变化时整体失效
+     */
+    private Cache<String, ItemFacetVO> facetCache;
+    /**
+     * 全量重建期间发生变更的商品id，重建完成后再补一次
+     */
+    private Set<Long> changedDuringRebuild;
+    private volatile boolean ready = false;
+    /**
+     * 前缀联想，构建后只读，索引变化后由定时任务批量重建
+     */
+    private volatile PrefixSuggester suggester = PrefixSuggester.EMPTY;
+    private final AtomicBoolean suggesterDirty = new AtomicBoolean(false);
+
+    @PostConstruct
+    public void init() {
+        facetCache = Caffeine.newBuilder()
+                .maximumSize(searchProperties.getFacetCacheSize())
+                .expireAfterWrite(searchProperties.getFacetCacheTtl())
+                .build();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!searchProperties.getIndexEnabled()) {
+            return;
+        }
+        rebuild();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 全量重建索引，重建过程中不影响查询
+     */
+    public void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            // 1.开始记录重建期间的变更
+            lock.writeLock().lock();
+            try {
+                changedDuringRebuild = ConcurrentHashMap.newKeySet();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            // 2.分批加载全量商品到新索引
+            IndexData fresh = new IndexData();
+            Long lastId = 0L;
+            while (true) {
+                List<Item> items = itemMapper.queryAfter(lastId, LOAD_BATCH_SIZE);
+                if (items.isEmpty()) {
+                    break;
+                }
+                items.forEach(item -> fresh.add(toDoc(item)));
+                lastId = items.get(items.size() - 1).getId();
+            }
+            // 3.替换旧索引
+            Set<Long> changed;
+            lock.writeLock().lock();
+            try {
+                data = fresh;
+                changed = changedDuringRebuild;
+                changedDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            ready = true;
+            facetCache.invalidateAll();
+            suggester = new PrefixSuggester(fresh.suggestEntries());
+            log.info("商品搜索索引构建完成，商品数：{}，耗时：{}ms", fresh.liveCount(), System.currentTimeMillis() - begin);
+            // 4.补上重建期间的变更
+            if (!changed.isEmpty()) {
+                refresh(changed);
+            }
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * 商品变更后，从数据库重新加载这些商品并更新索引，数据库中已不存在的商品从索引删除。
+     * 异步执行，hm.search.refresh-delay 内的变更合并为一次查询
+     */
+    public void refresh(Collection<Long> ids) {
+        if (!searchProperties.getIndexEnabled() || CollUtils.isEmpty(ids)) {
+            return;
+        }
+        pendingRefresh.addAll(ids);
+        if (refreshScheduled.compareAndSet(false, true)) {
+            refreshExecutor.schedule(this::refreshPending,
+                    searchProperties.getRefreshDelay().toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void refreshPending() {
+        // 先清除标记再取出，取出之后到达的变更会安排下一次
+        refreshScheduled.set(false);
+        List<Long> ids = new ArrayList<>(pendingRefresh);
+        pendingRefresh.removeAll(ids);
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            refreshNow(ids);
+        } catch (Exception e) {
+            log.error("更新商品搜索索引失败，ids：{}", ids, e);
+        }
+    }
+
+    private void refreshNow(Collection<Long> ids) {
+        // 串行执行，保证先查到的旧数据不会覆盖后查到的新数据
+        boolean needRebuild;
+        synchronized (refreshMutex) {
+            List<Item> items = itemMapper.selectBatchIds(ids);
+            lock.writeLock().lock();
+            try {
+                if (changedDuringRebuild != null) {
+                    changedDuringRebuild.addAll(ids);
+                }
+                ids.forEach(data::remove);
+                items.forEach(item -> data.add(toDoc(item)));
+                needRebuild = data.deadCount() > data.docCount() * searchProperties.getRebuildDeadRatio();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            facetCache.invalidateAll();
+            suggesterDirty.set(true);
+        }
+        if (needRebuild && !rebuilding.get()) {
+            rebuildExecutor.execute(this::rebuild);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        refreshExecutor.shutdown();
+        rebuildExecutor.shutdown();
+    }
+
+    /**
+     * 过滤条件与原先数据库查询语义一致：名称包含关键字、品牌分类相等、价格在区间内、状态为上架。
+     * 有关键字且未指定排序字段，或指定按 score 排序时按相关度倒序，否则按指定字段排序，默认按更新时间倒序
+     */
+    public PageDTO<ItemDTO> search(ItemPageQuery query) {
+        // 0.分页参数不合法时直接拒绝，否则计算页数时除零、截取当前页时越界
+        Integer pageNo = query.getPageNo();
+        Integer pageSize = query.getPageSize();
+        if (pageNo == null || pageNo < 1 || pageSize == null || pageSize < 1) {
+            throw new BadRequestException("页码和每页查询数量不能小于1");
+        }
+        boolean byScore = SORT_BY_SCORE.equals(query.getSortBy())
+                || (StrUtil.isBlank(query.getSortBy()) && StrUtil.isNotBlank(query.getKey()));
+        // 1.过滤，需要打分时在同一个读锁内取出词频统计
+        List<ItemDoc> docs;
+        RelevanceScorer scorer = null;
+        lock.readLock().lock();
+        try {
+            docs = data.docs(data.match(query));
+            if (byScore) {
+                scorer = data.scorer(query.getKey(), searchProperties);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 2.只取到当前页为止的前 pageNo * pageSize 条，用有界堆选出，不做全量排序
+        int total = docs.size();
+        int limit = (int) Math.min((long) query.getPageNo() * query.getPageSize(), total);
+        List<ItemDoc> top;
+        if (byScore) {
+            List<ScoredDoc> scored = new ArrayList<>(total);
+            for (ItemDoc doc : docs) {
+                scored.add(new ScoredDoc(doc, scorer.score(doc)));
+            }
+            top = TopK.select(scored, SCORE_ORDER, limit).stream().map(ScoredDoc::getDoc).collect(Collectors.toList());
+        } else {
+            boolean asc = Boolean.TRUE.equals(query.getIsAsc());
+            if (StrUtil.isBlank(query.getSortBy())) {
+                asc = false;
+            }
+            top = TopK.select(docs, comparator(query.getSortBy(), asc), limit);
+        }
+        // 3.分页
+        return toPage(top, total, query.getPageNo(), query.getPageSize());
+    }
+
+    /**
+     * 统计当前搜索条件下各品牌、分类、价格区间的商品数量，一次遍历结果集完成
+     */
+    public ItemFacetVO facets(ItemPageQuery query) {
+        return facetCache.get(facetKey(query), k -> {
+            lock.readLock().lock();
+            try {
+                return data.facets(data.match(query), searchProperties.getPriceBuckets());
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * 返回以prefix开头的商品名称、品牌、分类中权重最大的前size个
+     */
+    public List<SuggestionVO> suggest(String prefix, int size) {
+        if (StrUtil.isEmpty(prefix)) {
+            return CollUtils.emptyList();
+        }
+        return suggester.suggest(SearchTokenizer.normalize(prefix), size);
+    }
+
+    /**
+     * 商品变化频繁，联想数据不逐条更新，而是定时检查并整体重建
+     */
+    @Scheduled(fixedDelayString = "${hm.search.suggest-refresh-millis:30000}")
+    public void rebuildSuggesterIfDirty() {
+        if (!ready || !suggesterDirty.compareAndSet(true, false)) {
+            return;
+        }
+        List<PrefixSuggester.Entry> entries;
+        lock.readLock().lock();
+        try {
+            entries = data.suggestEntries();
+        } finally {
+            lock.readLock().unlock();
+        }
+        suggester = new PrefixSuggester(entries);
+    }
+
+    /**
+     * 只有过滤条件影响聚合结果，分页和排序参数不参与
+     */
+    private static String facetKey(ItemPageQuery query) {
+        return StrUtil.join("|",
+                SearchTokenizer.normalize(query.getKey()),
+                StrUtil.nullToEmpty(query.getBrand()),
+                StrUtil.nullToEmpty(query.getCategory()),
+                query.getMinPrice(),
+                query.getMaxPrice());
+    }
+
+    /**
+     * @param top 排好序的前若干条，至少覆盖到当前页
+     */
+    private static PageDTO<ItemDTO> toPage(List<ItemDoc> top, long total, int pageNo, int pageSize) {
+        long pages = (total + pageSize - 1) / pageSize;
+        int from = (int) Math.min((long) (pageNo - 1) * pageSize, total);
+        int to = (int) Math.min((long) from + pageSize, top.size());
+        List<ItemDTO> list = top.subList(from, to).stream().map(ItemDoc::getItem).collect(Collectors.toList());
+        return new PageDTO<>(total, pages, list);
+    }
+
+    private static Comparator<ItemDoc> comparator(String sortBy, boolean asc) {
+        Comparator<ItemDoc> comparator;
+        switch (StrUtil.nullToEmpty(sortBy)) {
+            case "price":
+                comparator = Comparator.comparingInt(d -> nullToZero(d.getItem().getPrice()));
+                break;
+            case "sold":
+                comparator = Comparator.comparingInt(d -> nullToZero(d.getItem().getSold()));
+                break;
+            case "comment_count":
+            case "commentCount":
+                comparator = Comparator.comparingInt(d -> nullToZero(d.getItem().getCommentCount()));
+                break;
+            case "id":
+                comparator = Comparator.comparingLong(d -> d.getItem().getId());
+                break;
+            default:
+                comparator = Comparator.comparingLong(ItemDoc::getUpdateTime);
+        }
+        if (!asc) {
+            comparator = comparator.reversed();
+        }
+        return comparator.thenComparing(Comparator.comparingLong((ItemDoc d) -> d.getItem().getId()).reversed());
+    }
+
+    /**
+     * 分数相同时按id倒序，保证翻页时顺序稳定
+     */
+    private static final Comparator<ScoredDoc> SCORE_ORDER = Comparator.comparingDouble(ScoredDoc::getScore).reversed()
+            .thenComparing(Comparator.comparingLong((ScoredDoc d) -> d.getDoc().getItem().getId()).reversed());
+
+    @Getter
+    @AllArgsConstructor
+    private static class ScoredDoc {
+        private final ItemDoc doc;
+        private final double score;
+    }
+
+    private static int nullToZero(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static ItemDoc toDoc(Item item) {
+        long updateTime = item.getUpdateTime() == null ? 0L : LocalDateTimeUtil.toEpochMilli(item.getUpdateTime());
+        return new ItemDoc(BeanUtils.copyBean(item, ItemDTO.class), SearchTokenizer.normalize(item.getName()), updateTime);
+    }
+
+    /**
+     * 索引数据本身不加锁，由外部的读写锁保护
+     */
+    static class IndexData {
+        private final List<ItemDoc> docs = new ArrayList<>();
+        private final Map<Long, Integer> docIds = new HashMap<>();
+        private final BitSet live = new BitSet();
+        private final Map<String, PostingList> tokens = new HashMap<>();
+        private final Map<String, BitSet> brands = new HashMap<>();
+        private final Map<String, BitSet> categories = new HashMap<>();
+        private final Map<Integer, BitSet> statuses = new HashMap<>();
+        private final TreeMap<Integer, PostingList> prices = new TreeMap<>();
+        /**
+         * 有效文档的名称总长度，用于计算平均长度
+         */
+        private long liveNameLength;
+
+        void add(ItemDoc doc) {
+            ItemDTO item = doc.getItem();
+            remove(item.getId());
+            // 文档编号只增不减，倒排表始终有序
+            int docId = docs.size();
+            docs.add(doc);
+            docIds.put(item.getId(), docId);
+            live.set(docId);
+            liveNameLength += doc.getNormalizedName().length();
+            for (String token : SearchTokenizer.indexTokens(doc.getNormalizedName())) {
+                tokens.computeIfAbsent(token, k -> new PostingList()).add(docId);
+            }
+            if (item.getBrand() != null) {
+                brands.computeIfAbsent(item.getBrand(), k -> new BitSet()).set(docId);
+            }
+            if (item.getCategory() != null) {
+                categories.computeIfAbsent(item.getCategory(), k -> new BitSet()).set(docId);
+            }
+            if (item.getStatus() != null) {
+                statuses.computeIfAbsent(item.getStatus(), k -> new BitSet()).set(docId);
+            }
+            if (item.getPrice() != null) {
+                prices.computeIfAbsent(item.getPrice(), k -> new PostingList()).add(docId);
+            }
+        }
+
+        /**
+         * 只做删除标记，倒排表中的旧编号在查询时被live位图过滤掉
+         */
+        void remove(Long itemId) {
+            Integer docId = docIds.remove(itemId);
+            if (docId == null) {
+                return;
+            }
+            live.clear(docId);
+            liveNameLength -= docs.get(docId).getNormalizedName().length();
+            ItemDTO item = docs.get(docId).getItem();
+            clear(brands.get(item.getBrand()), docId);
+            clear(categories.get(item.getCategory()), docId);
+            clear(statuses.get(item.getStatus()), docId);
+        }
+
+        private static void clear(BitSet bits, int docId) {
+            if (bits != null) {
+                bits.clear(docId);
+            }
+        }
+
+        BitSet match(ItemPageQuery query) {
+            // 1.上架的商品
+            BitSet bits = (BitSet) live.clone();
+            bits.and(statuses.getOrDefault(ON_SALE, new BitSet()));
+            // 2.品牌、分类
+            if (StrUtil.isNotBlank(query.getBrand())) {
+                bits.and(brands.getOrDefault(query.getBrand(), new BitSet()));
+            }
+            if (StrUtil.isNotBlank(query.getCategory())) {
+                bits.and(categories.getOrDefault(query.getCategory(), new BitSet()));
+            }
+            // 3.价格区间
+            if (query.getMinPrice() != null || query.getMaxPrice() != null) {
+                int min = query.getMinPrice() == null ? Integer.MIN_VALUE : query.getMinPrice();
+                int max = query.getMaxPrice() == null ? Integer.MAX_VALUE : query.getMaxPrice();
+                BitSet priceBits = new BitSet();
+                if (min <= max) {
+                    prices.subMap(min, true, max, true).values().forEach(p -> p.orInto(priceBits));
+                }
+                bits.and(priceBits);
+            }
+            // 4.关键字：从最短的倒排表开始求交集，再精确校验是否包含
+            if (StrUtil.isNotBlank(query.getKey())) {
+                String key = SearchTokenizer.normalize(query.getKey());
+                List<PostingList> postings = new ArrayList<>();
+                for (String token : SearchTokenizer.queryTokens(key)) {
+                    PostingList posting = tokens.get(token);
+                    if (posting == null) {
+                        bits.clear();
+                        return bits;
+                    }
+                    postings.add(posting);
+                }
+                postings.sort(Comparator.comparingInt(PostingList::size));
+                for (PostingList posting : postings) {
+                    if (bits.isEmpty()) {
+                        break;
+                    }
+                    posting.intersect(bits);
+                }
+                for (int docId = bits.nextSetBit(0); docId >= 0; docId = bits.nextSetBit(docId + 1)) {
+                    if (!docs.get(docId).getNormalizedName().contains(key)) {
+                        bits.clear(docId);
+                    }
+                }
+            }
+            return bits;
+        }
+
+        ItemFacetVO facets(BitSet bits, List<Integer> bucketBounds) {
+            Map<String, Long> brandCounts = new HashMap<>();
+            Map<String, Long> categoryCounts = new HashMap<>();
+            long[] bucketCounts = new long[bucketBounds.size()];
+            for (int docId = bits.nextSetBit(0); docId >= 0; docId = bits.nextSetBit(docId + 1)) {
+                ItemDTO item = docs.get(docId).getItem();
+                if (item.getBrand() != null) {
+                    brandCounts.merge(item.getBrand(), 1L, Long::sum);
+                }
+                if (item.getCategory() != null) {
+                    categoryCounts.merge(item.getCategory(), 1L, Long::sum);
+                }
+                if (item.getPrice() != null) {
+                    // 找到最后一个不大于价格的边界
+                    int bucket = Collections.binarySearch(bucketBounds, item.getPrice());
+                    bucket = bucket >= 0 ? bucket : -bucket - 2;
+                    if (bucket >= 0) {
+                        bucketCounts[bucket]++;
+                    }
+                }
+            }
+            ItemFacetVO vo = new ItemFacetVO();
+            vo.setTotal((long) bits.cardinality());
+            vo.setBrands(sortByCount(brandCounts));
+            vo.setCategories(sortByCount(categoryCounts));
+            List<ItemFacetVO.PriceBucket> prices = new ArrayList<>(bucketCounts.length);
+            for (int i = 0; i < bucketCounts.length; i++) {
+                Integer to = i + 1 < bucketBounds.size() ? bucketBounds.get(i + 1) : null;
+                prices.add(new ItemFacetVO.PriceBucket(bucketBounds.get(i), to, bucketCounts[i]));
+            }
+            vo.setPrices(prices);
+            return vo;
+        }
+
+        private static Map<String, Long> sortByCount(Map<String, Long> counts) {
+            Map<String, Long> sorted = new LinkedHashMap<>(counts.size());
+            counts.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .forEach(e -> sorted.put(e.getKey(), e.getValue()));
+            return sorted;
+        }
+
+        /**
+         * 上架商品的名称、品牌、分类，权重为销量加评论数，同名的词权重累加
+         */
+        List<PrefixSuggester.Entry> suggestEntries() {
+            Map<String, PrefixSuggester.Entry> entries = new HashMap<>();
+            BitSet bits = (BitSet) live.clone();
+            bits.and(statuses.getOrDefault(ON_SALE, new BitSet()));
+            for (int docId = bits.nextSetBit(0); docId >= 0; docId = bits.nextSetBit(docId + 1)) {
+                ItemDTO item = docs.get(docId).getItem();
+                long weight = (long) nullToZero(item.getSold()) + nullToZero(item.getCommentCount());
+                addEntry(entries, item.getName(), "name", weight);
+                addEntry(entries, item.getBrand(), "brand", weight);
+                addEntry(entries, item.getCategory(), "category", weight);
+            }
+            return new ArrayList<>(entries.values());
+        }
+
+        private static void addEntry(Map<String, PrefixSuggester.Entry> entries, String text, String type, long weight) {
+            if (StrUtil.isBlank(text)) {
+                return;
+            }
+            entries.computeIfAbsent(type + "|" + text, k -> new PrefixSuggester.Entry(text, type, 0)).addWeight(weight);
+        }
+
+        /**
+         * 倒排表里还留着已删除文档的编号，文档频率会略微偏高，对排序影响可以忽略
+         */
+        RelevanceScorer scorer(String key, SearchProperties properties) {
+            int liveCount = liveCount();
+            Map<String, Double> idf = new HashMap<>();
+            for (String token : SearchTokenizer.queryTokens(SearchTokenizer.normalize(key))) {
+                PostingList posting = tokens.get(token);
+                int docFreq = posting == null ? 0 : Math.min(posting.size(), liveCount);
+                idf.put(token, RelevanceScorer.idf(liveCount, docFreq));
+            }
+            double avgLength = liveCount == 0 ? 0 : (double) liveNameLength / liveCount;
+            return new RelevanceScorer(idf, avgLength, properties);
+        }
+
+        List<ItemDoc> docs(BitSet bits) {
+            List<ItemDoc> result = new ArrayList<>(bits.cardinality());
+            for (int docId = bits.nextSetBit(0); docId >= 0; docId = bits.nextSetBit(docId + 1)) {
+                result.add(docs.get(docId));
+            }
+            return result;
+        }
+
+        int docCount() {
+            return docs.size();
+        }
+
+        int liveCount() {
+            return docIds.size();
+        }
+
+        int deadCount() {
+            return docs.size() - docIds.size();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.hmall.item.search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 倒排表，按文档编号递增追加；文档编号只增不减，所以数组始终有序
+ */
+class PostingList {
+    private int[] docIds = new int[4];
+    private int size;
+
+    void add(int docId) {
+        if (size > 0 && docIds[size - 1] == docId) {
+            return;
+        }
+        if (size == docIds.length) {
+            docIds = Arrays.copyOf(docIds, size << 1);
+        }
+        docIds[size++] = docId;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 与给定位图求交集，结果写回位图
+     */
+    void intersect(BitSet bits) {
+        BitSet matched = new BitSet(bits.length());
+        for (int i = 0; i < size; i++) {
+            if (bits.get(docIds[i])) {
+                matched.set(docIds[i]);
+            }
+        }
+        bits.and(matched);
+    }
+
+    void orInto(BitSet bits) {
+        for (int i = 0; i < size; i++) {
+            bits.set(docIds[i]);
+        }
+    }
+}
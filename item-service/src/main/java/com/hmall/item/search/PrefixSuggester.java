@@ -0,0 +1,136 @@
+package com.hmall.item.search;
+
+import com.hmall.item.domain.vo.SuggestionVO;
+
+import java.util.*;
+
+/**
+ * 前缀联想：所有联想词按规范化后的字典序排成数组，同一前缀的词在数组中连续，
+ * 二分查找定位区间后，借助稀疏表 O(1) 求区间内权重最大的词，用优先队列依次取出前K个
+ * <p>
+ * 构建完成后只读，可以无锁并发查询；数据变化时整体重建并替换
+ */
+class PrefixSuggester {
+
+    static final PrefixSuggester EMPTY = new PrefixSuggester(Collections.emptyList());
+
+    private final String[] terms;
+    private final String[] texts;
+    private final String[] types;
+    private final long[] weights;
+    /**
+     * sparse[j][i] 为区间 [i, i + 2^j) 内权重最大的下标
+     */
+    private final int[][] sparse;
+
+    /**
+     * @param entries 联想词，未排序，同一类型下的相同词应已合并
+     */
+    PrefixSuggester(List<Entry> entries) {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing((Entry e) -> e.term).thenComparing(e -> e.type));
+        int n = sorted.size();
+        terms = new String[n];
+        texts = new String[n];
+        types = new String[n];
+        weights = new long[n];
+        for (int i = 0; i < n; i++) {
+            Entry e = sorted.get(i);
+            terms[i] = e.term;
+            texts[i] = e.text;
+            types[i] = e.type;
+            weights[i] = e.weight;
+        }
+        int levels = n == 0 ? 1 : 32 - Integer.numberOfLeadingZeros(n);
+        sparse = new int[levels][];
+        sparse[0] = new int[n];
+        for (int i = 0; i < n; i++) {
+            sparse[0][i] = i;
+        }
+        for (int j = 1; j < levels; j++) {
+            int len = n - (1 << j) + 1;
+            sparse[j] = new int[len];
+            for (int i = 0; i < len; i++) {
+                sparse[j][i] = heavier(sparse[j - 1][i], sparse[j - 1][i + (1 << (j - 1))]);
+            }
+        }
+    }
+
+    /**
+     * @param prefix 规范化后的前缀
+     * @param k 返回数量
+     * @return 以prefix开头、权重最大的前k个联想词，按权重倒序
+     */
+    List<SuggestionVO> suggest(String prefix, int k) {
+        int lo = lowerBound(prefix);
+        int hi = lowerBound(prefix + Character.MAX_VALUE);
+        List<SuggestionVO> result = new ArrayList<>(Math.min(k, Math.max(hi - lo, 0)));
+        if (lo >= hi || k <= 0) {
+            return result;
+        }
+        // 队列中的每个元素是一个区间，按区间内最大权重排序
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> Long.compare(weights[b[2]], weights[a[2]]));
+        queue.add(new int[]{lo, hi, maxIndex(lo, hi)});
+        while (!queue.isEmpty() && result.size() < k) {
+            int[] range = queue.poll();
+            int best = range[2];
+            result.add(new SuggestionVO(texts[best], types[best], weights[best]));
+            // 把区间从最大值处拆成左右两段继续比较
+            if (range[0] < best) {
+                queue.add(new int[]{range[0], best, maxIndex(range[0], best)});
+            }
+            if (best + 1 < range[1]) {
+                queue.add(new int[]{best + 1, range[1], maxIndex(best + 1, range[1])});
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return terms.length;
+    }
+
+    /**
+     * 区间 [from, to) 内权重最大的下标
+     */
+    private int maxIndex(int from, int to) {
+        int j = 31 - Integer.numberOfLeadingZeros(to - from);
+        return heavier(sparse[j][from], sparse[j][to - (1 << j)]);
+    }
+
+    private int heavier(int a, int b) {
+        return weights[a] >= weights[b] ? a : b;
+    }
+
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = terms.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (terms[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    static class Entry {
+        private final String term;
+        private final String text;
+        private final String type;
+        private long weight;
+
+        Entry(String text, String type, long weight) {
+            this.term = SearchTokenizer.normalize(text);
+            this.text = text;
+            this.type = type;
+            this.weight = weight;
+        }
+
+        void addWeight(long weight) {
+            this.weight += weight;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.hmall.item.search;
+
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.item.config.SearchProperties;
+
+import java.util.Map;
+
+/**
+ * 相关度打分：关键字的文本得分(BM25)乘以销量、评论数的热度加成，广告商品再乘以广告加成
+ * <p>
+ * 文本得分按关键字的每个二元组累加：idf(t) * tf * (k1 + 1) / (tf + k1 * (1 - b + b * dl / avgdl))，
+ * 其中 tf 为二元组在名称中出现的次数，dl 为名称长度。没有关键字时文本得分恒为1，只按热度排序
+ */
+class RelevanceScorer {
+
+    private final Map<String, Double> idf;
+    private final double avgLength;
+    private final double k1;
+    private final double b;
+    private final double soldBoost;
+    private final double commentBoost;
+    private final double adBoost;
+
+    /**
+     * @param idf       关键字每个二元组的逆文档频率，为空表示没有关键字
+     * @param avgLength 在售商品名称的平均长度
+     */
+    RelevanceScorer(Map<String, Double> idf, double avgLength, SearchProperties properties) {
+        this.idf = idf;
+        this.avgLength = avgLength > 0 ? avgLength : 1;
+        this.k1 = properties.getBm25K1();
+        this.b = properties.getBm25B();
+        this.soldBoost = properties.getSoldBoost();
+        this.commentBoost = properties.getCommentBoost();
+        this.adBoost = properties.getAdBoost();
+    }
+
+    /**
+     * @param docCount 文档总数
+     * @param docFreq  包含该词的文档数
+     */
+    static double idf(int docCount, int docFreq) {
+        return Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    double score(ItemDoc doc) {
+        ItemDTO item = doc.getItem();
+        double score = textScore(doc.getNormalizedName());
+        // 销量、评论数差距可达几个数量级，取对数避免热门商品完全压过文本相关度
+        score *= 1 + soldBoost * Math.log1p(nonNegative(item.getSold()))
+                + commentBoost * Math.log1p(nonNegative(item.getCommentCount()));
+        if (Boolean.TRUE.equals(item.getIsAD())) {
+            score *= adBoost;
+        }
+        return score;
+    }
+
+    private double textScore(String name) {
+        if (idf.isEmpty()) {
+            return 1;
+        }
+        double norm = k1 * (1 - b + b * name.length() / avgLength);
+        double score = 0;
+        for (Map.Entry<String, Double> e : idf.entrySet()) {
+            int tf = countOccurrences(name, e.getKey());
+            score += e.getValue() * tf * (k1 + 1) / (tf + norm);
+        }
+        return score;
+    }
+
+    private static int countOccurrences(String text, String token) {
+        int count = 0;
+        for (int i = text.indexOf(token); i >= 0; i = text.indexOf(token, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int nonNegative(Integer value) {
+        return value == null || value < 0 ? 0 : value;
+    }
+}
@@ -0,0 +1,58 @@
+package com.hmall.item.search;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 商品名称分词：统一转小写后按字符切分二元组(bigram)，中英文一视同仁
+ * <p>
+ * 关键字是名称的子串时，关键字的每个二元组一定都出现在名称里，所以倒排求交集得到的候选集
+ * 一定包含 LIKE '%key%' 的全部结果，再用 contains 精确校验即可
+ */
+public final class SearchTokenizer {
+
+    private SearchTokenizer() {
+    }
+
+    /**
+     * 与 MySQL 默认排序规则的 LIKE 一致，匹配时忽略大小写
+     */
+    public static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 建索引用：所有单字和二元组
+     */
+    public static Set<String> indexTokens(String normalized) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (int i = 0; i < normalized.length(); i++) {
+            tokens.add(normalized.substring(i, i + 1));
+            if (i + 1 < normalized.length()) {
+                tokens.add(normalized.substring(i, i + 2));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 查询用：单个字符的关键字用单字，否则用全部二元组
+     */
+    public static Set<String> queryTokens(String normalized) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (StrUtil.isEmpty(normalized)) {
+            return tokens;
+        }
+        if (normalized.length() == 1) {
+            tokens.add(normalized);
+            return tokens;
+        }
+        for (int i = 0; i + 1 < normalized.length(); i++) {
+            tokens.add(normalized.substring(i, i + 2));
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,35 @@
+package com.hmall.item.search;
+
+import java.util.*;
+
+/**
+ * 从大量元素中选出排序最靠前的k个：维护容量为k的堆，堆顶是当前入选元素中排最后的，
+ * 新元素比堆顶靠前才替换，复杂度 O(n log k)，只需要前几页时比全量排序省得多
+ */
+final class TopK {
+
+    private TopK() {
+    }
+
+    /**
+     * @return 按 order 排好序的前k个元素
+     */
+    static <T> List<T> select(Iterable<T> elements, Comparator<? super T> order, int k) {
+        if (k <= 0) {
+            return new ArrayList<>(0);
+        }
+        // 堆顶为排最后的元素
+        PriorityQueue<T> heap = new PriorityQueue<>(k, Collections.reverseOrder(order));
+        for (T e : elements) {
+            if (heap.size() < k) {
+                heap.add(e);
+            } else if (order.compare(e, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+        List<T> result = new ArrayList<>(heap);
+        result.sort(order);
+        return result;
+    }
+}
@@ -0,0 +1,31 @@
+package com.hmall.item.service;
+
+import com.hmall.item.domain.vo.ItemImportResultVO;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * 商品批量导入导出
+ * </p>
+ */
+public interface IItemBulkService {
+
+    String FORMAT_NDJSON = "ndjson";
+    String FORMAT_CSV = "csv";
+
+    /**
+     * 边读边写入数据库，有id的商品存在则更新、不存在则新增，没有id的商品新增
+     *
+     * @param format ndjson 或 csv
+     */
+    ItemImportResultVO importItems(InputStream in, String format);
+
+    /**
+     * 按id顺序分批查询并写出，不一次性加载全部商品
+     *
+     * @param format ndjson 或 csv
+     */
+    void exportItems(OutputStream out, String format);
+}
@@ -3,7 +3,11 @@ package com.hmall.item.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmall.api.dto.ItemDTO;
 import com.hmall.api.dto.OrderDetailDTO;
+import com.hmall.common.domain.PageDTO;
+import com.hmall.common.domain.PageQuery;
 import com.hmall.item.domain.po.Item;
+import com.hmall.item.domain.query.ItemSeekQuery;
+import com.hmall.item.domain.vo.ItemSeekPageVO;
 
 import java.util.Collection;
 import java.util.List;
@@ -20,5 +24,21 @@ public interface IItemService extends IService<Item> {
 
     void deductStock(List<OrderDetailDTO> items);
 
+    void reshardStock(Long id, Integer shardCount);
+
+    PageDTO<ItemDTO> queryItemByPage(PageQuery query);
+
+    ItemSeekPageVO queryItemBySeek(ItemSeekQuery query);
+
     List<ItemDTO> queryItemByIds(Collection<Long> ids);
+
+    ItemDTO queryItemById(Long id);
+
+    void saveItem(ItemDTO item);
+
+    void updateItem(ItemDTO item);
+
+    void updateItemStatus(Long id, Integer status);
+
+    void deleteItemById(Long id);
 }
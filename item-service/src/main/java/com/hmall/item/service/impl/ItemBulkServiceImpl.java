@@ -0,0 +1,276 @@
+package com.hmall.item.service.impl;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.text.csv.*;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.common.exception.BadRequestException;
+import com.hmall.common.utils.BeanUtils;
+import com.hmall.common.utils.CollUtils;
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.cache.ItemIdBloomFilter;
+import com.hmall.item.domain.po.Item;
+import com.hmall.item.domain.vo.ItemImportResultVO;
+import com.hmall.item.mapper.ItemMapper;
+import com.hmall.item.service.IItemBulkService;
+import com.hmall.item.stock.StockEngine;
+import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * 商品批量导入导出，导入时每攒够一批就用一条多行INSERT写入数据库，导出时按id分批查询，都不会把全部数据放进内存
+ * </p>
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ItemBulkServiceImpl implements IItemBulkService {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int MAX_ERRORS = 1000;
+    private static final String[] CSV_HEADER = {"id", "name", "price", "stock", "image", "category", "brand", "spec",
+            "sold", "commentCount", "isAD", "status"};
+
+    private final ItemMapper itemMapper;
+    private final ItemCache itemCache;
+    private final ItemIdBloomFilter bloomFilter;
+    private final StockEngine stockEngine;
+    private final TransactionTemplate transactionTemplate;
+
+    @Override
+    public ItemImportResultVO importItems(InputStream in, String format) {
+        checkFormat(format);
+        ItemImportResultVO result = new ItemImportResultVO();
+        List<Row> batch = new ArrayList<>(BATCH_SIZE);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            if (FORMAT_CSV.equals(format)) {
+                // 1.CSV：第一行为表头，按表头的字段名取值
+                CsvParser parser = new CsvParser(reader, CsvReadConfig.defaultConfig().setContainsHeader(true));
+                CsvRow row;
+                while ((row = parser.nextRow()) != null) {
+                    CsvRow current = row;
+                    accept(current.getOriginalLineNumber() + 1, () -> fromCsv(current), batch, result);
+                }
+            } else {
+                // 2.NDJSON：每行一个商品，空行跳过
+                String line;
+                long lineNo = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNo++;
+                    if (StrUtil.isBlank(line)) {
+                        continue;
+                    }
+                    String json = line;
+                    accept(lineNo, () -> JSONUtil.toBean(json, ItemDTO.class), batch, result);
+                }
+            }
+        } catch (IOException e) {
+            throw new BadRequestException("读取导入数据失败", e);
+        }
+        // 3.最后不满一批的
+        flush(batch, result);
+        return result;
+    }
+
+    private void accept(long line, Supplier<ItemDTO> parser, List<Row> batch, ItemImportResultVO result) {
+        result.setTotal(result.getTotal() + 1);
+        Item item;
+        try {
+            item = toItem(parser.get());
+        } catch (Exception e) {
+            addError(result, line, ExceptionUtil.getRootCauseMessage(e));
+            return;
+        }
+        batch.add(new Row(line, item, item.getId() == null));
+        if (batch.size() >= BATCH_SIZE) {
+            flush(batch, result);
+        }
+    }
+
+    /**
+     * 校验并补全默认值，带id的商品写入时才知道是否为新增，见 {@link #writeBatch(List)}
+     */
+    private static Item toItem(ItemDTO dto) {
+        Item item = BeanUtils.copyBean(dto, Item.class);
+        if (item.getId() == null) {
+            checkNewItem(item);
+        }
+        if ((item.getPrice() != null && item.getPrice() < 0) || (item.getStock() != null && item.getStock() < 0)) {
+            throw new BadRequestException("价格和库存不能为负数");
+        }
+        return item;
+    }
+
+    /**
+     * 新增的商品必须有名称、价格、库存，其它字段补全默认值
+     */
+    private static void checkNewItem(Item item) {
+        if (StrUtil.isBlank(item.getName()) || item.getPrice() == null || item.getStock() == null) {
+            throw new BadRequestException("新增商品的名称、价格、库存不能为空");
+        }
+        item.setSold(item.getSold() == null ? 0 : item.getSold());
+        item.setCommentCount(item.getCommentCount() == null ? 0 : item.getCommentCount());
+        item.setIsAD(item.getIsAD() != null && item.getIsAD());
+        item.setStatus(item.getStatus() == null ? 1 : item.getStatus());
+    }
+
+    private void flush(List<Row> batch, ItemImportResultVO result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            writeBatch(batch);
+            result.setSuccess(result.getSuccess() + batch.size());
+        } catch (Exception e) {
+            // 整批失败时逐行重试，找出出错的行
+            log.warn("批量导入商品失败，逐行重试，首行行号：{}", batch.get(0).line, e);
+            for (Row row : batch) {
+                try {
+                    writeBatch(CollUtils.singletonList(row));
+                    result.setSuccess(result.getSuccess() + 1);
+                } catch (Exception ex) {
+                    addError(result, row.line, ExceptionUtil.getRootCauseMessage(ex));
+                }
+            }
+        }
+        batch.clear();
+    }
+
+    private void writeBatch(List<Row> rows) {
+        // 1.按导入时是否带id区分新增和覆盖。整批失败回滚后，多行插入回填的id并没有提交，逐行重试前要清掉
+        List<Item> inserts = rows.stream().filter(r -> r.isNew).map(r -> r.item.setId(null)).collect(Collectors.toList());
+        List<Item> upserts = rows.stream().filter(r -> !r.isNew).map(r -> r.item).collect(Collectors.toList());
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!inserts.isEmpty()) {
+                itemMapper.insertBatch(inserts);
+            }
+            if (!upserts.isEmpty()) {
+                // 2.先锁住读取旧库存：不存在的id是新增，按新增商品校验；覆盖库存的商品用旧库存计算变化量
+                Map<Long, Integer> oldStocks = itemMapper.lockStocks(upserts.stream().map(Item::getId).collect(Collectors.toSet()));
+                upserts.stream().filter(i -> !oldStocks.containsKey(i.getId())).forEach(ItemBulkServiceImpl::checkNewItem);
+                List<Item> stockChanged = upserts.stream().filter(i -> i.getStock() != null).collect(Collectors.toList());
+                itemMapper.upsertBatch(upserts);
+                // 库存被直接覆盖，通知库存扣减模块，同一商品出现多次时以最后一次为准
+                if (!stockChanged.isEmpty()) {
+                    Map<Long, Integer> deltas = new LinkedHashMap<>();
+                    stockChanged.forEach(i -> deltas.put(i.getId(), i.getStock() - oldStocks.getOrDefault(i.getId(), 0)));
+                    stockEngine.onStockChanged(deltas);
+                }
+            }
+        });
+        // 3.事务已提交：新id加入布隆过滤器，清理缓存并通知各节点更新搜索索引
+        List<Long> ids = rows.stream().map(r -> r.item.getId()).collect(Collectors.toList());
+        bloomFilter.putAll(ids);
+        itemCache.evict(ids);
+    }
+
+    private static void addError(ItemImportResultVO result, long line, String message) {
+        result.setFailed(result.getFailed() + 1);
+        if (result.getErrors().size() < MAX_ERRORS) {
+            result.getErrors().add(new ItemImportResultVO.RowError(line, message));
+        }
+    }
+
+    private static ItemDTO fromCsv(CsvRow row) {
+        ItemDTO item = new ItemDTO();
+        item.setId(toLong(row.getByName("id")));
+        item.setName(emptyToNull(row.getByName("name")));
+        item.setPrice(toInt(row.getByName("price")));
+        item.setStock(toInt(row.getByName("stock")));
+        item.setImage(emptyToNull(row.getByName("image")));
+        item.setCategory(emptyToNull(row.getByName("category")));
+        item.setBrand(emptyToNull(row.getByName("brand")));
+        item.setSpec(emptyToNull(row.getByName("spec")));
+        item.setSold(toInt(row.getByName("sold")));
+        item.setCommentCount(toInt(row.getByName("commentCount")));
+        String isAD = emptyToNull(row.getByName("isAD"));
+        item.setIsAD(isAD == null ? null : Boolean.valueOf(isAD));
+        item.setStatus(toInt(row.getByName("status")));
+        return item;
+    }
+
+    private static String emptyToNull(String value) {
+        return StrUtil.isBlank(value) ? null : value.trim();
+    }
+
+    private static Integer toInt(String value) {
+        return StrUtil.isBlank(value) ? null : Integer.valueOf(value.trim());
+    }
+
+    private static Long toLong(String value) {
+        return StrUtil.isBlank(value) ? null : Long.valueOf(value.trim());
+    }
+
+    @Override
+    public void exportItems(OutputStream out, String format) {
+        checkFormat(format);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        CsvWriter csvWriter = FORMAT_CSV.equals(format) ? CsvUtil.getWriter(writer) : null;
+        try {
+            if (csvWriter != null) {
+                csvWriter.write(CSV_HEADER);
+            }
+            // 按id游标分批查询，每批写完就刷出去
+            Long lastId = 0L;
+            while (true) {
+                List<Item> items = itemMapper.queryAfter(lastId, BATCH_SIZE);
+                if (items.isEmpty()) {
+                    break;
+                }
+                List<ItemDTO> dtos = stockEngine.fillStock(BeanUtils.copyList(items, ItemDTO.class));
+                for (ItemDTO dto : dtos) {
+                    if (csvWriter != null) {
+                        csvWriter.write(toCsv(dto));
+                    } else {
+                        writer.write(JSONUtil.toJsonStr(dto));
+                        writer.write('\n');
+                    }
+                }
+                if (csvWriter != null) {
+                    csvWriter.flush();
+                } else {
+                    writer.flush();
+                }
+                lastId = items.get(items.size() - 1).getId();
+            }
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+
+    private static String[] toCsv(ItemDTO item) {
+        return new String[]{StrUtil.toStringOrNull(item.getId()), item.getName(), StrUtil.toStringOrNull(item.getPrice()),
+                StrUtil.toStringOrNull(item.getStock()), item.getImage(), item.getCategory(), item.getBrand(),
+                item.getSpec(), StrUtil.toStringOrNull(item.getSold()), StrUtil.toStringOrNull(item.getCommentCount()),
+                StrUtil.toStringOrNull(item.getIsAD()), StrUtil.toStringOrNull(item.getStatus())};
+    }
+
+    private static void checkFormat(String format) {
+        if (!FORMAT_NDJSON.equals(format) && !FORMAT_CSV.equals(format)) {
+            throw new BadRequestException("不支持的格式：" + format + "，只支持 ndjson 和 csv");
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Row {
+        private final long line;
+        private final Item item;
+        /**
+         * 导入数据中没有id，由数据库生成
+         */
+        private final boolean isNew;
+    }
+}
@@ -1,24 +1,39 @@
 package com.hmall.item.service.impl;
 
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.lang.TypeReference;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmall.api.dto.ItemDTO;
 import com.hmall.api.dto.OrderDetailDTO;
-import com.hmall.common.exception.BizIllegalException;
+import com.hmall.common.cache.CacheClient;
+import com.hmall.common.cache.CacheRegion;
+import com.hmall.common.cache.CacheSpec;
+import com.hmall.common.domain.PageDTO;
+import com.hmall.common.domain.PageQuery;
 import com.hmall.common.utils.BeanUtils;
+import com.hmall.common.utils.CollUtils;
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.cache.ItemIdBloomFilter;
+import com.hmall.item.config.ItemCacheProperties;
 import com.hmall.item.domain.po.Item;
+import com.hmall.item.domain.query.ItemSeekQuery;
+import com.hmall.item.domain.vo.ItemSeekPageVO;
 import com.hmall.item.mapper.ItemMapper;
 import com.hmall.item.service.IItemService;
+import com.hmall.item.stock.StockEngine;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
 
-import static com.hmall.common.utils.RedisConstants.ITEM_ID;
+import static com.hmall.common.utils.RedisConstants.ITEM_COUNT_KEY;
+import static com.hmall.common.utils.RedisConstants.ITEM_PAGE_KEY;
 
 /**
  * <p>
@@ -30,50 +45,158 @@ import static com.hmall.common.utils.RedisConstants.ITEM_ID;
 @Service
 @RequiredArgsConstructor
 public class ItemServiceImpl extends ServiceImpl<ItemMapper, Item> implements IItemService {
-    private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * 分页结果和商品总数的缓存区域，有效期在 hm.cache.specs 中按区域名配置
+     */
+    public static final String PAGE_CACHE_REGION = "item-page";
+    public static final String COUNT_CACHE_REGION = "item-count";
+    private static final String ITEM_COUNT_ALL = "all";
+
+    private final ItemCache itemCache;
+    private final ItemIdBloomFilter bloomFilter;
+    private final ItemCacheProperties cacheProperties;
+    private final CacheClient cacheClient;
+    private final StockEngine stockEngine;
+
+    private CacheRegion<String, PageDTO<ItemDTO>> pageCache;
+    private CacheRegion<String, Long> countCache;
+
+    @PostConstruct
+    public void initCache() {
+        pageCache = cacheClient.region(PAGE_CACHE_REGION, ITEM_PAGE_KEY, new TypeReference<PageDTO<ItemDTO>>() {}.getType(),
+                new CacheSpec().setTtl(Duration.ofSeconds(30)));
+        countCache = cacheClient.region(COUNT_CACHE_REGION, ITEM_COUNT_KEY, Long.class,
+                new CacheSpec().setTtl(Duration.ofSeconds(60)));
+    }
+
+    /**
+     * 不在这里开启事务，由各扣减方式自己管理，group模式下等待结果时不能占用数据库连接
+     */
     @Override
-    @Transactional
     public void deductStock(List<OrderDetailDTO> items) {
-        String sqlStatement = "com.hmall.item.mapper.ItemMapper.updateStock";
-        boolean r = false;
-        try {
-            r = executeBatch(items, (sqlSession, entity) -> sqlSession.update(sqlStatement, entity));
-        } catch (Exception e) {
-            log.error("更新库存异常", e);
-            throw new BizIllegalException("库存不足！");
+        if (CollUtils.isEmpty(items)) {
+            return;
         }
-        if (!r) {
-            throw new BizIllegalException("库存不足！");
+        // 按配置的方式扣减，任一商品库存不足时整单失败
+        stockEngine.deduct(items);
+    }
+
+    @Override
+    @Transactional
+    public void reshardStock(Long id, Integer shardCount) {
+        stockEngine.reshard(id, shardCount);
+    }
+
+    @Override
+    public PageDTO<ItemDTO> queryItemByPage(PageQuery query) {
+        Page<Item> page = query.toMpPage("update_time", false);
+        // 1.默认排序的前几页先查缓存
+        boolean cacheable = "update_time".equals(query.getSortBy()) && Boolean.FALSE.equals(query.getIsAsc())
+                && query.getPageNo() <= cacheProperties.getPageCacheMaxPageNo();
+        if (cacheable) {
+            // 有效期很短，不随商品变更主动失效
+            return pageCache.get(query.getPageNo() + ":" + query.getPageSize(), () -> queryPage(page));
+        }
+        return queryPage(page);
+    }
+
+    private PageDTO<ItemDTO> queryPage(Page<Item> page) {
+        // 总数走缓存，分页查询时不再执行COUNT(*)
+        page.setSearchCount(false);
+        page.setTotal(countItems());
+        page(page);
+        return PageDTO.of(page, ItemDTO.class);
+    }
+
+    @Override
+    public ItemSeekPageVO queryItemBySeek(ItemSeekQuery query) {
+        // 1.按(update_time, id)倒序，从上一页最后一条之后开始查，不需要扫描前面的记录
+        LocalDateTime lastTime = query.isFirstPage() ? null : LocalDateTimeUtil.of(query.getLastUpdateTime());
+        List<Item> items = lambdaQuery()
+                .and(!query.isFirstPage(), w -> w.lt(Item::getUpdateTime, lastTime)
+                        .or(o -> o.eq(Item::getUpdateTime, lastTime).lt(Item::getId, query.getLastId())))
+                .orderByDesc(Item::getUpdateTime)
+                .orderByDesc(Item::getId)
+                .last("LIMIT " + query.getPageSize())
+                .list();
+        // 2.封装结果，本页满了才有下一页游标
+        ItemSeekPageVO vo = new ItemSeekPageVO();
+        vo.setTotal(countItems());
+        vo.setList(BeanUtils.copyList(items, ItemDTO.class));
+        if (items.size() == query.getPageSize()) {
+            Item last = items.get(items.size() - 1);
+            vo.setNextUpdateTime(LocalDateTimeUtil.toEpochMilli(last.getUpdateTime()));
+            vo.setNextId(last.getId());
         }
+        return vo;
+    }
+
+    /**
+     * 查询商品总数，结果短时间缓存在redis
+     */
+    private long countItems() {
+        return countCache.get(ITEM_COUNT_ALL, () -> (long) count());
     }
 
     @Override
     public List<ItemDTO> queryItemByIds(Collection<Long> ids) {
-        String key = ITEM_ID;
-        List<ItemDTO> items = new ArrayList<>();
         //select * from item where id=?.
-        //查缓存
-        for (Long id:ids) {
-            key = ITEM_ID+id;
-            String itemCache = stringRedisTemplate.opsForValue().get(key);
-            if(itemCache!=null){
-                items.add(JSONUtil.toBean(itemCache,ItemDTO.class));
-            }
-        }
-        Integer idSize = ids.size();
-        //缓存与数据库一致性判断
-        if (idSize.equals(items.size())){
-            //一致直接返回
-            return items;
-        }
-        //查库
-        items= BeanUtils.copyList(listByIds(ids), ItemDTO.class);
-        //写入缓存
-        for (ItemDTO item:items){
-            key = ITEM_ID+item.getId();
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(item));
+        // 1.查缓存，未命中的id只查库一次并回写
+        Map<Long, ItemDTO> itemMap = itemCache.getAll(ids,
+                missIds -> BeanUtils.copyList(listByIds(missIds), ItemDTO.class));
+        // 2.按请求顺序返回，数据库中也不存在的id直接忽略
+        List<ItemDTO> items = itemMap.values().stream().filter(Objects::nonNull).collect(Collectors.toList());
+        // 3.库存不在商品表中维护时，替换为实际库存
+        return stockEngine.fillStock(items);
+    }
+
+    @Override
+    public ItemDTO queryItemById(Long id) {
+        return queryItemByIds(CollUtils.singletonList(id)).stream().findFirst().orElse(null);
+    }
+
+    @Override
+    @Transactional
+    public void saveItem(ItemDTO item) {
+        Item po = BeanUtils.copyBean(item, Item.class);
+        save(po);
+        // 事务提交后清理该id可能存在的空值缓存，并通知各节点加入布隆过滤器
+        bloomFilter.putAll(CollUtils.singletonList(po.getId()));
+        itemCache.evictAfterCommit(CollUtils.singletonList(po.getId()));
+    }
+
+    @Override
+    @Transactional
+    public void updateItem(ItemDTO item) {
+        // 修改库存时先锁住商品读取旧库存，用来计算库存的变化量
+        Map<Long, Integer> oldStocks = item.getStock() == null
+                ? Collections.emptyMap() : baseMapper.lockStocks(CollUtils.singletonList(item.getId()));
+        updateById(BeanUtils.copyBean(item, Item.class));
+        // 事务提交后使缓存失效
+        itemCache.evictAfterCommit(CollUtils.singletonList(item.getId()));
+        // 库存被直接修改，通知库存扣减模块
+        if (item.getStock() != null) {
+            stockEngine.onStockChanged(Collections.singletonMap(item.getId(),
+                    item.getStock() - oldStocks.getOrDefault(item.getId(), 0)));
         }
-        //返回
-        return items;
+    }
+
+    @Override
+    @Transactional
+    public void updateItemStatus(Long id, Integer status) {
+        Item item = new Item();
+        item.setId(id);
+        item.setStatus(status);
+        updateById(item);
+        // 事务提交后使缓存失效
+        itemCache.evictAfterCommit(CollUtils.singletonList(id));
+    }
+
+    @Override
+    @Transactional
+    public void deleteItemById(Long id) {
+        removeById(id);
+        // 事务提交后使缓存失效
+        itemCache.evictAfterCommit(CollUtils.singletonList(id));
     }
 }
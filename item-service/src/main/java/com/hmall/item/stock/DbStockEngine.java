@@ -0,0 +1,41 @@
+package com.hmall.item.stock;
+
+import com.hmall.api.dto.OrderDetailDTO;
+import com.hmall.common.exception.BizIllegalException;
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.mapper.ItemMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 直接在数据库中扣减，某个商品扣减失败时由事务回滚已扣减的商品
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "hm.item.stock", name = "mode", havingValue = "db", matchIfMissing = true)
+public class DbStockEngine implements StockEngine {
+
+    private final ItemMapper itemMapper;
+    private final ItemCache itemCache;
+
+    @Override
+    @Transactional
+    public void deduct(List<OrderDetailDTO> items) {
+        // 1.逐个扣减，SQL中带库存判断，影响行数为0说明库存不足或商品不存在。数量为负时库存判断总是成立，必须先拦截
+        for (OrderDetailDTO item : items) {
+            if (item.getNum() == null || item.getNum() <= 0) {
+                throw new BizIllegalException("购买数量必须大于0");
+            }
+            if (itemMapper.updateStock(item) == 0) {
+                throw new BizIllegalException("库存不足！");
+            }
+        }
+        // 2.库存变了，事务提交后清理商品缓存
+        itemCache.evictStockAfterCommit(items.stream().map(OrderDetailDTO::getItemId).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,237 @@
+package com.hmall.item.stock;
+
+import com.hmall.api.dto.OrderDetailDTO;
+import com.hmall.common.exception.BadRequestException;
+import com.hmall.common.exception.BizIllegalException;
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.config.StockProperties;
+import com.hmall.item.domain.po.Item;
+import com.hmall.item.mapper.ItemMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 组提交：几毫秒内到达的扣减请求由一个后台线程合并到一个事务中执行，多个订单共用一次事务提交
+ * <p>
+ * 一批请求涉及的商品先按id顺序加锁读出库存，再按到达顺序逐个判断：某个请求的所有商品都够扣才接受，
+ * 否则只让这个请求失败，不影响同批的其它请求。接受的请求按商品合并后，每个商品执行一条带库存判断的UPDATE。
+ * 事务提交后再逐个通知调用方各自的结果
+ * <p>
+ * 扣减在后台线程的事务中执行，不参与调用方的事务。后台线程在开启事务前认领本批的请求，
+ * 调用方等待超时时只能取消还没被认领的请求；已被认领的请求一定会执行，调用方超时后继续等待它的结果，
+ * 不会出现调用方收到失败而库存已被扣减的情况
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "hm.item.stock", name = "mode", havingValue = "group")
+public class GroupCommitStockEngine implements StockEngine {
+
+    private final ItemMapper itemMapper;
+    private final ItemCache itemCache;
+    private final StockProperties stockProperties;
+    private final TransactionTemplate transactionTemplate;
+
+    private final BlockingQueue<DeductRequest> queue = new LinkedBlockingQueue<>();
+    private Thread worker;
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void init() {
+        worker = new Thread(this::runLoop, "item-stock-group-commit");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        worker.interrupt();
+    }
+
+    @Override
+    public void deduct(List<OrderDetailDTO> items) {
+        // 1.同一商品的数量合并
+        Map<Long, Integer> nums = new LinkedHashMap<>();
+        for (OrderDetailDTO item : items) {
+            if (item.getNum() == null || item.getNum() <= 0) {
+                throw new BadRequestException("购买数量必须大于0");
+            }
+            nums.merge(item.getItemId(), item.getNum(), Integer::sum);
+        }
+        // 2.提交给后台线程并等待结果
+        DeductRequest request = new DeductRequest(nums);
+        queue.add(request);
+        try {
+            request.future.get(stockProperties.getGroupCommitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new BizIllegalException("库存扣减失败", e.getCause());
+        } catch (TimeoutException e) {
+            if (request.cancel()) {
+                throw new BizIllegalException("库存扣减超时，请稍后重试");
+            }
+            // 3.已被认领，事务的结果一定会通知，继续等待
+            awaitClaimed(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (request.cancel()) {
+                throw new BizIllegalException("库存扣减被中断");
+            }
+            awaitClaimed(request);
+        }
+    }
+
+    /**
+     * 等待已被认领的请求的结果，期间的中断延后到返回时恢复
+     */
+    private void awaitClaimed(DeductRequest request) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    request.future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new BizIllegalException("库存扣减失败", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runLoop() {
+        int maxBatch = stockProperties.getGroupCommitMaxBatch();
+        while (running) {
+            List<DeductRequest> batch = new ArrayList<>(maxBatch);
+            try {
+                // 1.等待第一个请求，之后在时间窗口内继续收集
+                batch.add(queue.take());
+                long deadline = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(stockProperties.getGroupCommitWindowMillis());
+                while (batch.size() < maxBatch) {
+                    DeductRequest next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                batch.forEach(r -> r.future.completeExceptionally(new BizIllegalException("服务正在关闭")));
+                Thread.currentThread().interrupt();
+                break;
+            }
+            // 2.执行这一批
+            try {
+                commit(batch);
+            } catch (Exception e) {
+                log.error("批量扣减库存失败，本批请求数：{}", batch.size(), e);
+                batch.forEach(r -> r.future.completeExceptionally(new BizIllegalException("库存扣减失败", e)));
+            }
+        }
+        // 3.关闭后剩余的请求直接失败
+        DeductRequest rest;
+        while ((rest = queue.poll()) != null) {
+            rest.future.completeExceptionally(new BizIllegalException("服务正在关闭"));
+        }
+    }
+
+    private void commit(List<DeductRequest> batch) {
+        // 1.认领本批请求，调用方已经超时放弃的不再执行；认领之后调用方不能再取消
+        batch.removeIf(r -> !r.claim());
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<Long> itemIds = new TreeSet<>();
+        batch.forEach(r -> itemIds.addAll(r.nums.keySet()));
+        List<DeductRequest> rejected = new ArrayList<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            rejected.clear();
+            // 2.锁住本批涉及的商品，读出当前库存
+            Map<Long, Integer> stocks = new HashMap<>(itemIds.size());
+            for (Item item : itemMapper.selectStockForUpdate(itemIds)) {
+                stocks.put(item.getId(), item.getStock() == null ? 0 : item.getStock());
+            }
+            // 3.按到达顺序判断每个请求，够扣的在内存中扣掉并累计到各商品的扣减量
+            Map<Long, Integer> deltas = new TreeMap<>();
+            for (DeductRequest request : batch) {
+                boolean enough = request.nums.entrySet().stream()
+                        .allMatch(e -> stocks.getOrDefault(e.getKey(), 0) >= e.getValue());
+                if (!enough) {
+                    rejected.add(request);
+                    continue;
+                }
+                request.nums.forEach((id, num) -> {
+                    stocks.merge(id, -num, Integer::sum);
+                    deltas.merge(id, num, Integer::sum);
+                });
+            }
+            // 4.每个商品一条UPDATE，行已加锁，判断失败说明数据异常，整批回滚
+            deltas.forEach((id, num) -> {
+                if (itemMapper.updateStock(new OrderDetailDTO().setItemId(id).setNum(num)) == 0) {
+                    throw new IllegalStateException("商品库存与加锁时读取的不一致，id：" + id);
+                }
+            });
+        });
+        // 5.事务已提交，清理缓存并通知调用方；清理失败不能影响已经提交的结果
+        try {
+            itemCache.evictStockAfterCommit(itemIds);
+        } catch (Exception e) {
+            log.error("扣减库存后清理商品缓存失败，ids：{}", itemIds, e);
+        }
+        for (DeductRequest request : batch) {
+            if (rejected.contains(request)) {
+                request.future.completeExceptionally(new BizIllegalException("库存不足！"));
+            } else {
+                request.future.complete(null);
+            }
+        }
+    }
+
+    private static class DeductRequest {
+        private static final int PENDING = 0;
+        private static final int CLAIMED = 1;
+        private static final int CANCELLED = 2;
+
+        private final Map<Long, Integer> nums;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        DeductRequest(Map<Long, Integer> nums) {
+            this.nums = nums;
+        }
+
+        /**
+         * 后台线程认领请求，调用方已取消时返回false
+         */
+        boolean claim() {
+            return state.compareAndSet(PENDING, CLAIMED);
+        }
+
+        /**
+         * 调用方放弃请求，已被认领时返回false
+         */
+        boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.hmall.item.stock;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.api.dto.OrderDetailDTO;
+import com.hmall.common.exception.BadRequestException;
+import com.hmall.common.exception.BizIllegalException;
+import com.hmall.common.utils.BeanUtils;
+import com.hmall.common.utils.CollUtils;
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.config.StockProperties;
+import com.hmall.item.domain.po.Item;
+import com.hmall.item.mapper.ItemMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmall.common.utils.RedisConstants.*;
+
+/**
+ * 在redis中预扣库存，再异步批量同步到数据库
+ * <p>
+ * 每个商品的库存存放在 item:stock:{id}，第一次扣减时从数据库加载。一个订单的所有商品由一段lua脚本原子地
+ * 检查并扣减，同时把扣减记录追加到待同步队列；定时任务把队列中的记录按商品合并后，在一个事务里用一条语句写回数据库。
+ * 同步时先把一批记录移到处理中列表，写库成功后再删除，进程宕机后由下一次同步重新处理，
+ * 极端情况下(写库成功但未删除)会重复扣减，需要人工核对
+ * <p>
+ * 扣减不参与数据库事务，订单服务在扣减成功后回滚时，预扣的库存不会自动返还
+ * <p>
+ * 查询商品时用redis中的库存替换数据库中的库存，数据库库存还没有扣除尚未同步的预扣
+ * <p>
+ * 后台直接修改库存时，把新旧库存的差值加到redis中的库存上，而不是删除后重新加载：
+ * 尚未同步的预扣记录之后仍会从数据库中扣除，数据库和redis最终一致
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "hm.item.stock", name = "mode", havingValue = "redis")
+public class RedisStockEngine implements StockEngine {
+
+    /**
+     * KEYS[1..n]为商品库存，KEYS[n+1]为待同步队列；ARGV[1..n]为扣减数量，ARGV[n+1]为扣减记录。
+     * 返回0表示成功，返回-i表示第i个商品的库存未加载，返回i表示第i个商品库存不足
+     */
+    private static final DefaultRedisScript<Long> DEDUCT_SCRIPT = new DefaultRedisScript<>(
+            "local n = #ARGV - 1 " +
+            "for i = 1, n do " +
+            "  local stock = redis.call('get', KEYS[i]) " +
+            "  if not stock then return -i end " +
+            "  if tonumber(stock) < tonumber(ARGV[i]) then return i end " +
+            "end " +
+            "for i = 1, n do redis.call('decrby', KEYS[i], ARGV[i]) end " +
+            "redis.call('rpush', KEYS[n + 1], ARGV[n + 1]) " +
+            "return 0", Long.class);
+    /**
+     * KEYS[1]为待同步队列，KEYS[2]为处理中列表，ARGV[1]为每批条数。
+     * 处理中列表不为空说明上次同步没有完成，直接返回它重新处理
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> MOVE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[2]) == 1 then return redis.call('lrange', KEYS[2], 0, -1) end " +
+            "local records = redis.call('lrange', KEYS[1], 0, tonumber(ARGV[1]) - 1) " +
+            "if #records > 0 then " +
+            "  redis.call('ltrim', KEYS[1], #records, -1) " +
+            "  redis.call('rpush', KEYS[2], unpack(records)) " +
+            "end " +
+            "return records", List.class);
+    /**
+     * KEYS[i]为商品库存，ARGV[i]为库存的变化量。只调整已加载的库存，未加载的在下次扣减时从数据库加载
+     */
+    private static final DefaultRedisScript<Long> ADJUST_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #KEYS do " +
+            "  if redis.call('exists', KEYS[i]) == 1 then redis.call('incrby', KEYS[i], ARGV[i]) end " +
+            "end " +
+            "return 0", Long.class);
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0", Long.class);
+    /**
+     * 每次定时任务最多同步的批数，剩下的留给下一次
+     */
+    private static final int MAX_FLUSH_ROUNDS = 20;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ItemMapper itemMapper;
+    private final ItemCache itemCache;
+    private final StockProperties stockProperties;
+    private final TransactionTemplate transactionTemplate;
+
+    @Override
+    public void deduct(List<OrderDetailDTO> items) {
+        // 1.同一商品的数量合并
+        Map<Long, Integer> nums = new LinkedHashMap<>();
+        for (OrderDetailDTO item : items) {
+            if (item.getNum() == null || item.getNum() <= 0) {
+                throw new BadRequestException("购买数量必须大于0");
+            }
+            nums.merge(item.getItemId(), item.getNum(), Integer::sum);
+        }
+        if (nums.isEmpty()) {
+            return;
+        }
+        // 2.准备脚本参数
+        List<String> keys = new ArrayList<>(nums.size() + 1);
+        List<String> args = new ArrayList<>(nums.size() + 1);
+        nums.forEach((id, num) -> {
+            keys.add(ITEM_STOCK_KEY + id);
+            args.add(String.valueOf(num));
+        });
+        keys.add(ITEM_STOCK_FLUSH_KEY);
+        args.add(nums.entrySet().stream().map(e -> e.getKey() + ":" + e.getValue()).collect(Collectors.joining(",")));
+        // 3.原子扣减，库存未加载时从数据库加载后重试一次
+        Long result = stringRedisTemplate.execute(DEDUCT_SCRIPT, keys, args.toArray());
+        if (result != null && result < 0) {
+            loadStock(nums.keySet());
+            result = stringRedisTemplate.execute(DEDUCT_SCRIPT, keys, args.toArray());
+        }
+        if (result == null || result != 0) {
+            throw new BizIllegalException("库存不足！");
+        }
+    }
+
+    /**
+     * 把数据库中的库存加载到redis，已加载的不覆盖
+     */
+    private void loadStock(Collection<Long> itemIds) {
+        for (Item item : itemMapper.selectBatchIds(itemIds)) {
+            int stock = item.getStock() == null ? 0 : item.getStock();
+            stringRedisTemplate.opsForValue().setIfAbsent(ITEM_STOCK_KEY + item.getId(), String.valueOf(stock));
+        }
+    }
+
+    /**
+     * 把预扣记录同步到数据库，多个节点通过分布式锁保证同时只有一个在同步
+     */
+    @Scheduled(fixedDelayString = "${hm.item.stock.flush-interval-millis:200}")
+    public void flush() {
+        String token = UUID.fastUUID().toString(true);
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(LOCK_ITEM_STOCK_FLUSH_KEY, token, stockProperties.getFlushLockTtl());
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        try {
+            int batchSize = stockProperties.getFlushBatchSize();
+            for (int round = 0; round < MAX_FLUSH_ROUNDS; round++) {
+                int size = flushBatch(batchSize);
+                if (size < batchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("同步预扣库存到数据库失败，稍后重试", e);
+        } finally {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, CollUtils.singletonList(LOCK_ITEM_STOCK_FLUSH_KEY), token);
+        }
+    }
+
+    /**
+     * @return 本批处理的记录条数
+     */
+    @SuppressWarnings("unchecked")
+    private int flushBatch(int batchSize) {
+        // 1.取出一批记录放入处理中列表
+        List<String> records = stringRedisTemplate.execute(MOVE_SCRIPT,
+                Arrays.asList(ITEM_STOCK_FLUSH_KEY, ITEM_STOCK_FLUSHING_KEY), String.valueOf(batchSize));
+        if (CollUtils.isEmpty(records)) {
+            return 0;
+        }
+        // 2.按商品合并扣减数量
+        Map<Long, Integer> deltas = new HashMap<>();
+        for (String record : records) {
+            for (String part : StrUtil.split(record, ',')) {
+                List<String> idAndNum = StrUtil.split(part, ':');
+                deltas.merge(Long.valueOf(idAndNum.get(0)), Integer.valueOf(idAndNum.get(1)), Integer::sum);
+            }
+        }
+        List<OrderDetailDTO> details = deltas.entrySet().stream()
+                .map(e -> new OrderDetailDTO().setItemId(e.getKey()).setNum(e.getValue()))
+                .collect(Collectors.toList());
+        // 3.一个事务一条语句写回数据库，成功后删除处理中列表
+        transactionTemplate.executeWithoutResult(status -> itemMapper.batchDeductStock(details));
+        stringRedisTemplate.delete(ITEM_STOCK_FLUSHING_KEY);
+        // 4.数据库中的库存变了，清理商品缓存
+        itemCache.evictStock(deltas.keySet());
+        return records.size();
+    }
+
+    /**
+     * 已加载到redis的商品，用redis中的库存替换：数据库中的库存还没有扣除尚未同步的预扣。
+     * 未加载的商品没有预扣，数据库中的库存就是实际库存
+     */
+    @Override
+    public List<ItemDTO> fillStock(List<ItemDTO> items) {
+        if (CollUtils.isEmpty(items)) {
+            return items;
+        }
+        List<String> values;
+        try {
+            values = stringRedisTemplate.opsForValue()
+                    .multiGet(items.stream().map(item -> ITEM_STOCK_KEY + item.getId()).collect(Collectors.toList()));
+        } catch (Exception e) {
+            log.error("查询redis中的库存失败，返回数据库中的库存", e);
+            return items;
+        }
+        if (values == null) {
+            return items;
+        }
+        List<ItemDTO> result = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            ItemDTO item = items.get(i);
+            String stock = values.get(i);
+            if (stock == null) {
+                result.add(item);
+                continue;
+            }
+            // 缓存中的对象是共享的，复制一份再修改
+            ItemDTO copy = BeanUtils.copyBean(item, ItemDTO.class);
+            copy.setStock(Integer.parseInt(stock));
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * 数据库中的库存被直接修改后，事务提交后把变化量原子地加到redis中的库存上
+     * <p>
+     * 不能删除后重新加载：待同步和处理中的预扣记录还没有从数据库扣除，重新加载会把它们算作可用库存，
+     * 之后同步时又扣一次，导致超卖。用变化量调整时，redis中的库存始终等于数据库库存减去尚未同步的预扣
+     */
+    @Override
+    public void onStockChanged(Map<Long, Integer> stockDeltas) {
+        if (CollUtils.isEmpty(stockDeltas)) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(stockDeltas.size());
+        List<String> args = new ArrayList<>(stockDeltas.size());
+        stockDeltas.forEach((id, delta) -> {
+            keys.add(ITEM_STOCK_KEY + id);
+            args.add(String.valueOf(delta));
+        });
+        Runnable reset = () -> {
+            try {
+                stringRedisTemplate.execute(ADJUST_SCRIPT, keys, args.toArray());
+            } catch (Exception e) {
+                // 数据库已提交，redis中的库存与数据库不一致，需要人工核对
+                log.error("调整redis中的库存失败，变化量：{}", stockDeltas, e);
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            reset.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                reset.run();
+            }
+        });
+    }
+}
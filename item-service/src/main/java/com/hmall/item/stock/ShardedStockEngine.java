@@ -0,0 +1,254 @@
+package com.hmall.item.stock;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.api.dto.OrderDetailDTO;
+import com.hmall.common.exception.BadRequestException;
+import com.hmall.common.exception.BizIllegalException;
+import com.hmall.common.utils.BeanUtils;
+import com.hmall.common.utils.CollUtils;
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.config.StockProperties;
+import com.hmall.item.domain.po.Item;
+import com.hmall.item.domain.po.ItemStockShard;
+import com.hmall.item.mapper.ItemMapper;
+import com.hmall.item.mapper.ItemStockShardMapper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 分段库存：热点商品的库存拆成多段存放在 item_stock_shard 表，扣减时随机选一段尝试，
+ * 并发的订单落在不同的行锁上，扣减能力随分段数线性增长。这一段不够扣时不再逐段试探，直接按分段号顺序锁住
+ * 该商品的全部分段，合计足够就扣减并把剩余库存重新均分到各段。未拆分的商品仍然直接扣减商品表
+ * <p>
+ * 扣减在READ COMMITTED下执行：不满足条件的UPDATE会立即释放它检查过的行锁，试探失败后再按顺序加锁时
+ * 不会持有顺序之外的锁；REPEATABLE READ下试探失败的行锁一直保留，两个库存不足的订单会互相死锁。
+ * 一个订单中的多个商品按id顺序扣减，避免不同订单以相反的顺序锁住两个商品
+ * <p>
+ * 拆分后商品表中的库存不再随扣减变化，查询商品时用各段合计替换，合计在本地缓存很短的时间
+ * <p>
+ * 分段库存表的建表脚本见 db/item_stock_shard.sql，启动时检查，不存在时拒绝启动
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "hm.item.stock", name = "mode", havingValue = "sharded")
+public class ShardedStockEngine implements StockEngine {
+
+    private static final ShardSummary UNSHARDED = new ShardSummary(0, 0);
+
+    private final ItemMapper itemMapper;
+    private final ItemStockShardMapper shardMapper;
+    private final ItemCache itemCache;
+    private final StockProperties stockProperties;
+
+    /**
+     * 各商品的分段数和库存合计
+     */
+    private LoadingCache<Long, ShardSummary> summaries;
+
+    @PostConstruct
+    public void init() {
+        if (shardMapper.countTable() == 0) {
+            throw new IllegalStateException("缺少分段库存表 item_stock_shard，请先执行 db/item_stock_shard.sql");
+        }
+        summaries = Caffeine.newBuilder()
+                .expireAfterWrite(stockProperties.getShardSummaryCacheTtl())
+                .build(new CacheLoader<Long, ShardSummary>() {
+                    @Override
+                    public ShardSummary load(Long itemId) {
+                        return loadAll(CollUtils.singletonList(itemId)).get(itemId);
+                    }
+
+                    @Override
+                    public Map<Long, ShardSummary> loadAll(Iterable<? extends Long> itemIds) {
+                        return loadSummaries(itemIds);
+                    }
+                });
+    }
+
+    @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public void deduct(List<OrderDetailDTO> items) {
+        // 1.同一商品的数量合并，按id排序
+        Map<Long, Integer> nums = new TreeMap<>();
+        for (OrderDetailDTO item : items) {
+            if (item.getNum() == null || item.getNum() <= 0) {
+                throw new BadRequestException("购买数量必须大于0");
+            }
+            nums.merge(item.getItemId(), item.getNum(), Integer::sum);
+        }
+        // 2.逐个商品扣减，拆分过的扣分段库存，否则扣商品表
+        List<Long> plainIds = new ArrayList<>();
+        nums.forEach((itemId, num) -> {
+            if (deductShards(itemId, num)) {
+                return;
+            }
+            if (itemMapper.updateUnshardedStock(itemId, num) == 1) {
+                plainIds.add(itemId);
+                return;
+            }
+            // 扣减失败也可能是商品刚被其它节点拆分，本地缓存还不知道
+            summaries.invalidate(itemId);
+            if (!deductShards(itemId, num)) {
+                throw new BizIllegalException("库存不足！");
+            }
+        });
+        // 3.商品表的库存变了，事务提交后清理商品缓存
+        itemCache.evictStockAfterCommit(plainIds);
+    }
+
+    /**
+     * @return 商品没有拆分时返回false，库存不足时抛出异常
+     */
+    private boolean deductShards(Long itemId, int num) {
+        int shardCount = summaries.get(itemId).getShardCount();
+        if (shardCount == 0) {
+            return false;
+        }
+        // 1.随机选一段尝试
+        if (shardMapper.deduct(itemId, ThreadLocalRandom.current().nextInt(shardCount), num) == 1) {
+            return true;
+        }
+        // 2.这一段不够扣，按顺序锁住全部分段合并计算
+        List<ItemStockShard> shards = shardMapper.lockByItemId(itemId);
+        summaries.invalidate(itemId);
+        if (shards.isEmpty()) {
+            return false;
+        }
+        int total = shards.stream().mapToInt(ItemStockShard::getStock).sum();
+        if (total < num) {
+            throw new BizIllegalException("库存不足！");
+        }
+        // 3.扣减后剩余的库存均分到各段
+        rebalance(shards, total - num);
+        return true;
+    }
+
+    private void rebalance(List<ItemStockShard> shards, int remaining) {
+        int[] stocks = split(remaining, shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            ItemStockShard shard = shards.get(i);
+            if (shard.getStock() != stocks[i]) {
+                shardMapper.updateShardStock(shard.setStock(stocks[i]));
+            }
+        }
+    }
+
+    @Override
+    public void reshard(Long itemId, int shardCount) {
+        if (shardCount < 1 || shardCount > stockProperties.getMaxShardCount()) {
+            throw new BadRequestException("分段数必须在1到" + stockProperties.getMaxShardCount() + "之间");
+        }
+        // 1.锁住商品和已有分段，已拆分的以各段合计为准
+        Item item = itemMapper.selectForUpdate(itemId);
+        if (item == null) {
+            throw new BadRequestException("商品不存在");
+        }
+        List<ItemStockShard> shards = shardMapper.lockByItemId(itemId);
+        int total = shards.isEmpty()
+                ? (item.getStock() == null ? 0 : item.getStock())
+                : shards.stream().mapToInt(ItemStockShard::getStock).sum();
+        // 2.重新拆分，商品表中保存拆分时的合计，分段数为1时商品表重新成为唯一的库存
+        writeShards(itemId, total, shardCount);
+        itemMapper.updateById(new Item().setId(itemId).setStock(total));
+        summaries.invalidate(itemId);
+        itemCache.evictStockAfterCommit(CollUtils.singletonList(itemId));
+    }
+
+    /**
+     * 后台直接修改了商品表中的库存，已拆分的商品按新库存重新均分
+     */
+    @Override
+    public void onStockChanged(Map<Long, Integer> stockDeltas) {
+        for (Long itemId : stockDeltas.keySet()) {
+            List<ItemStockShard> shards = shardMapper.lockByItemId(itemId);
+            if (shards.isEmpty()) {
+                continue;
+            }
+            Item item = itemMapper.selectById(itemId);
+            int total = item == null || item.getStock() == null ? 0 : item.getStock();
+            writeShards(itemId, total, shards.size());
+            summaries.invalidate(itemId);
+        }
+    }
+
+    private void writeShards(Long itemId, int total, int shardCount) {
+        shardMapper.deleteByItemId(itemId);
+        if (shardCount <= 1) {
+            return;
+        }
+        int[] stocks = split(total, shardCount);
+        List<ItemStockShard> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ItemStockShard().setItemId(itemId).setShardNo(i).setStock(stocks[i]));
+        }
+        shardMapper.insertBatch(shards);
+    }
+
+    /**
+     * 尽量均分，余数从前往后每段多分1个
+     */
+    private static int[] split(int total, int count) {
+        int[] stocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            stocks[i] = total / count + (i < total % count ? 1 : 0);
+        }
+        return stocks;
+    }
+
+    @Override
+    public List<ItemDTO> fillStock(List<ItemDTO> items) {
+        if (CollUtils.isEmpty(items)) {
+            return items;
+        }
+        List<Long> ids = new ArrayList<>(items.size());
+        items.forEach(item -> ids.add(item.getId()));
+        Map<Long, ShardSummary> shardSummaries = summaries.getAll(ids);
+        List<ItemDTO> result = new ArrayList<>(items.size());
+        for (ItemDTO item : items) {
+            ShardSummary summary = shardSummaries.getOrDefault(item.getId(), UNSHARDED);
+            if (summary.getShardCount() == 0) {
+                result.add(item);
+                continue;
+            }
+            // 缓存中的对象是共享的，复制一份再修改
+            ItemDTO copy = BeanUtils.copyBean(item, ItemDTO.class);
+            copy.setStock(summary.getTotal());
+            result.add(copy);
+        }
+        return result;
+    }
+
+    private Map<Long, ShardSummary> loadSummaries(Iterable<? extends Long> itemIds) {
+        List<Long> ids = new ArrayList<>();
+        itemIds.forEach(ids::add);
+        Map<Long, ShardSummary> result = new HashMap<>(ids.size());
+        ids.forEach(id -> result.put(id, UNSHARDED));
+        Map<Long, int[]> sums = new HashMap<>();
+        for (ItemStockShard shard : shardMapper.queryByItemIds(ids)) {
+            int[] sum = sums.computeIfAbsent(shard.getItemId(), k -> new int[2]);
+            sum[0]++;
+            sum[1] += shard.getStock();
+        }
+        sums.forEach((id, sum) -> result.put(id, new ShardSummary(sum[0], sum[1])));
+        return result;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class ShardSummary {
+        private final int shardCount;
+        private final int total;
+    }
+}
@@ -0,0 +1,41 @@
+package com.hmall.item.stock;
+
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.api.dto.OrderDetailDTO;
+import com.hmall.common.exception.BadRequestException;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 库存扣减，按 hm.item.stock.mode 选择实现
+ */
+public interface StockEngine {
+
+    /**
+     * 扣减一个订单中所有商品的库存，任一商品库存不足时全部不扣，并抛出 BizIllegalException
+     */
+    void deduct(List<OrderDetailDTO> items);
+
+    /**
+     * 商品库存被直接修改(如后台编辑商品)后调用，由实现决定如何同步自己维护的库存
+     * @param stockDeltas 商品id -> 修改后的库存减去修改前的库存，旧库存由调用方在同一事务中锁住商品后读取
+     */
+    default void onStockChanged(Map<Long, Integer> stockDeltas) {
+    }
+
+    /**
+     * 把商品库存拆成 shardCount 段，shardCount 为1时合并回商品表
+     */
+    default void reshard(Long itemId, int shardCount) {
+        throw new BadRequestException("当前库存扣减方式不支持分段库存");
+    }
+
+    /**
+     * 库存不在商品表中维护的实现，用自己维护的库存替换查询结果中的库存
+     */
+    default List<ItemDTO> fillStock(List<ItemDTO> items) {
+        return items;
+    }
+}
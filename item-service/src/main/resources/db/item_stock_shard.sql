@@ -0,0 +1,7 @@
+-- 商品分段库存表，库存扣减方式为 sharded 时使用，服务启动时会检查该表，不存在时拒绝启动
+CREATE TABLE IF NOT EXISTS `item_stock_shard` (
+  `item_id`  bigint NOT NULL COMMENT '商品id',
+  `shard_no` int    NOT NULL COMMENT '分段编号，从0开始',
+  `stock`    int    NOT NULL DEFAULT 0 COMMENT '分段库存',
+  PRIMARY KEY (`item_id`, `shard_no`)
+) ENGINE = InnoDB COMMENT = '商品分段库存表';
@@ -0,0 +1,84 @@
+package com.hmall.item.cache;
+
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.common.cache.CacheClient;
+import com.hmall.common.cache.CacheRegion;
+import com.hmall.item.config.ItemCacheProperties;
+import com.hmall.item.publisher.ItemChangePublisher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ItemCacheTest {
+
+    private static final List<Long> IDS = Collections.singletonList(1L);
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private ItemCache itemCache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        // L2始终未命中，每次都走loader
+        CacheRegion<Long, ItemDTO> region = mock(CacheRegion.class);
+        when(region.getAllPresent(anyCollection())).thenReturn(new HashMap<>());
+        when(region.getAll(anyCollection(), any())).thenAnswer(inv -> ((Function<List<Long>, Map<Long, ItemDTO>>)
+                inv.getArgument(1)).apply(new ArrayList<>((Collection<Long>) inv.getArgument(0))));
+        CacheClient cacheClient = mock(CacheClient.class);
+        doReturn(region).when(cacheClient).region(eq(ItemCache.REGION), anyString(), eq(ItemDTO.class));
+        ItemIdBloomFilter bloomFilter = mock(ItemIdBloomFilter.class);
+        when(bloomFilter.mightContain(anyLong())).thenReturn(true);
+        HotItemDetector hotItemDetector = mock(HotItemDetector.class);
+        when(hotItemDetector.isHot(anyLong())).thenReturn(true);
+
+        itemCache = new ItemCache(mock(StringRedisTemplate.class), cacheClient, new ItemCacheProperties(),
+                bloomFilter, new SimpleMeterRegistry(), hotItemDetector, mock(ItemChangePublisher.class));
+        itemCache.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        itemCache.destroy();
+    }
+
+    @Test
+    void pinnedItemSurvivesStockOnlyChange() {
+        get();
+        itemCache.evictLocalStock(IDS);
+
+        get();
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void pinnedItemIsEvictedOnItemChange() {
+        get();
+        itemCache.evictLocal(IDS);
+
+        get();
+        assertEquals(2, loads.get());
+    }
+
+    private void get() {
+        Map<Long, ItemDTO> items = itemCache.getAll(IDS, ids -> {
+            loads.incrementAndGet();
+            return ids.stream().map(id -> {
+                ItemDTO item = new ItemDTO();
+                item.setId(id);
+                return item;
+            }).collect(Collectors.toList());
+        });
+        assertEquals(1L, items.get(1L).getId());
+    }
+}
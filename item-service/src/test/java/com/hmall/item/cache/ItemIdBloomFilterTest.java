@@ -0,0 +1,52 @@
+package com.hmall.item.cache;
+
+import com.hmall.item.config.ItemCacheProperties;
+import com.hmall.item.mapper.ItemMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ItemIdBloomFilterTest {
+
+    private ItemMapper itemMapper;
+    private ItemIdBloomFilter bloomFilter;
+
+    @BeforeEach
+    void setUp() {
+        itemMapper = mock(ItemMapper.class);
+        when(itemMapper.queryIdsAfter(anyLong(), anyInt())).thenReturn(Collections.emptyList());
+        when(itemMapper.queryIdsAfter(eq(0L), anyInt())).thenReturn(Arrays.asList(10L, 20L, 30L));
+        ItemCacheProperties properties = new ItemCacheProperties();
+        properties.setBloomExpectedInsertions(1000L);
+        bloomFilter = new ItemIdBloomFilter(itemMapper, properties);
+        bloomFilter.init();
+        bloomFilter.run(null);
+    }
+
+    @Test
+    void idsBelowLoadedMaxAreFiltered() {
+        assertTrue(bloomFilter.mightContain(20L));
+        assertFalse(bloomFilter.mightContain(15L));
+    }
+
+    @Test
+    void idsAboveLoadedMaxFallThroughUntilCaughtUp() {
+        // 31、32是其它节点新增的，本机没有收到通知
+        assertTrue(bloomFilter.mightContain(31L));
+
+        when(itemMapper.queryIdsAfter(eq(30L), anyInt())).thenReturn(Arrays.asList(32L, 40L));
+        bloomFilter.catchUp();
+
+        assertTrue(bloomFilter.mightContain(32L));
+        assertFalse(bloomFilter.mightContain(31L));
+        verify(itemMapper).queryIdsAfter(eq(40L), anyInt());
+    }
+}
@@ -0,0 +1,103 @@
+package com.hmall.item.publisher;
+
+import com.hmall.api.dto.ItemSnapshotDTO;
+import com.hmall.item.config.ItemCacheProperties;
+import com.hmall.item.domain.po.Item;
+import com.hmall.item.mapper.ItemMapper;
+import com.hmall.item.stock.StockEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmall.common.utils.MqConstants.ITEM_CHANGE_KEY;
+import static com.hmall.common.utils.MqConstants.ITEM_EXCHANGE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ItemChangePublisherTest {
+
+    private ItemMapper itemMapper;
+    private RabbitTemplate rabbitTemplate;
+    private ItemChangePublisher publisher;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        itemMapper = mock(ItemMapper.class);
+        when(itemMapper.selectBatchIds(anyCollection())).thenAnswer(inv -> ((Collection<Long>) inv.getArgument(0))
+                .stream().map(id -> new Item().setId(id).setPrice(100).setStock(10).setStatus(1))
+                .collect(Collectors.toList()));
+        rabbitTemplate = mock(RabbitTemplate.class);
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(valueOps.increment(anyString())).thenReturn(1L);
+        StockEngine stockEngine = mock(StockEngine.class);
+        when(stockEngine.fillStock(anyList())).thenAnswer(inv -> inv.getArgument(0));
+        ObjectProvider<StockEngine> stockEngineProvider = mock(ObjectProvider.class);
+        when(stockEngineProvider.getObject()).thenReturn(stockEngine);
+
+        ItemCacheProperties properties = new ItemCacheProperties();
+        properties.setChangePublishDelay(Duration.ofMillis(50));
+        properties.setStockChangePublishInterval(Duration.ofMillis(500));
+        publisher = new ItemChangePublisher(itemMapper, rabbitTemplate, redisTemplate, stockEngineProvider, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        publisher.destroy();
+    }
+
+    @Test
+    void stockChangesWithinIntervalArePublishedOnce() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            publisher.publishStock(Collections.singletonList(i % 2 == 0 ? 1L : 2L));
+        }
+
+        Thread.sleep(800);
+
+        verify(itemMapper, times(1)).selectBatchIds(anyCollection());
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), sentIds().get(0));
+    }
+
+    @Test
+    void itemChangeIsNotHeldBackByStockThrottle() throws InterruptedException {
+        publisher.publishStock(Collections.singletonList(1L));
+        publisher.publish(Collections.singletonList(2L));
+
+        // 商品变更按较短的延迟先发布，库存变化等到节流间隔结束
+        Thread.sleep(300);
+        assertEquals(Collections.singletonList(Collections.singleton(2L)), sentIds());
+        Thread.sleep(500);
+        assertEquals(Arrays.asList(Collections.singleton(2L), Collections.singleton(1L)), sentIds());
+    }
+
+    @Test
+    void laterChangesArePublishedAgain() throws InterruptedException {
+        publisher.publish(Collections.singletonList(1L));
+        Thread.sleep(300);
+        publisher.publish(Collections.singletonList(1L));
+        Thread.sleep(300);
+
+        assertEquals(2, sentIds().size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Set<Long>> sentIds() {
+        ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+        verify(rabbitTemplate, atLeast(0)).convertAndSend(eq(ITEM_EXCHANGE), eq(ITEM_CHANGE_KEY), captor.capture());
+        return captor.getAllValues().stream()
+                .map(msg -> ((List<ItemSnapshotDTO>) msg).stream().map(ItemSnapshotDTO::getId).collect(Collectors.toSet()))
+                .collect(Collectors.toList());
+    }
+}
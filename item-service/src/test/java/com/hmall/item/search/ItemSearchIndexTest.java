@@ -0,0 +1,84 @@
+package com.hmall.item.search;
+
+import com.hmall.common.exception.BadRequestException;
+import com.hmall.item.config.SearchProperties;
+import com.hmall.item.domain.query.ItemPageQuery;
+import com.hmall.item.domain.po.Item;
+import com.hmall.item.mapper.ItemMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ItemSearchIndexTest {
+
+    private final List<Set<Long>> loads = Collections.synchronizedList(new ArrayList<>());
+    private ItemSearchIndex index;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ItemMapper itemMapper = mock(ItemMapper.class);
+        when(itemMapper.selectBatchIds(anyCollection())).thenAnswer(inv -> {
+            Set<Long> ids = new HashSet<>((Collection<Long>) inv.getArgument(0));
+            loads.add(ids);
+            return ids.stream()
+                    .map(id -> new Item().setId(id).setName("商品" + id).setPrice(100).setStatus(1))
+                    .collect(Collectors.toList());
+        });
+        SearchProperties properties = new SearchProperties();
+        properties.setRefreshDelay(Duration.ofMillis(50));
+        index = new ItemSearchIndex(itemMapper, properties);
+        index.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        index.destroy();
+    }
+
+    @Test
+    void changesWithinDelayAreLoadedOnce() throws InterruptedException {
+        index.refresh(Arrays.asList(1L, 2L));
+        index.refresh(Collections.singletonList(2L));
+        index.refresh(Collections.singletonList(3L));
+
+        Thread.sleep(300);
+
+        assertEquals(1, loads.size());
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)), loads.get(0));
+    }
+
+    @Test
+    void laterChangesAreLoadedAgain() throws InterruptedException {
+        index.refresh(Collections.singletonList(1L));
+        Thread.sleep(300);
+        index.refresh(Collections.singletonList(2L));
+        Thread.sleep(300);
+
+        assertEquals(2, loads.size());
+        assertEquals(Collections.singleton(2L), loads.get(1));
+    }
+
+    @Test
+    void invalidPagingIsRejectedAsBadRequest() {
+        ItemPageQuery zeroSize = new ItemPageQuery();
+        zeroSize.setPageSize(0);
+        ItemPageQuery zeroPage = new ItemPageQuery();
+        zeroPage.setPageNo(0);
+        ItemPageQuery negativePage = new ItemPageQuery();
+        negativePage.setPageNo(-1);
+
+        assertThrows(BadRequestException.class, () -> index.search(zeroSize));
+        assertThrows(BadRequestException.class, () -> index.search(zeroPage));
+        assertThrows(BadRequestException.class, () -> index.search(negativePage));
+    }
+}
@@ -0,0 +1,122 @@
+package com.hmall.item.service.impl;
+
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.cache.ItemIdBloomFilter;
+import com.hmall.item.domain.po.Item;
+import com.hmall.item.domain.vo.ItemImportResultVO;
+import com.hmall.item.mapper.ItemMapper;
+import com.hmall.item.service.IItemBulkService;
+import com.hmall.item.stock.StockEngine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ItemBulkServiceImplTest {
+
+    /**
+     * 数据库中已有的商品：id -> 库存
+     */
+    private final Map<Long, Integer> existing = new HashMap<>();
+    /**
+     * 每次多行插入时传入的商品是否都没有id
+     */
+    private final List<Boolean> insertsWithoutId = new ArrayList<>();
+    private final List<Item> upserted = new ArrayList<>();
+    private long nextId = 1000;
+
+    private ItemBulkServiceImpl service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ItemMapper itemMapper = mock(ItemMapper.class);
+        when(itemMapper.insertBatch(anyList())).thenAnswer(inv -> {
+            List<Item> items = inv.getArgument(0);
+            insertsWithoutId.add(items.stream().allMatch(i -> i.getId() == null));
+            // 先回填自增id，再因为某一行出错整条语句失败
+            items.forEach(i -> i.setId(nextId++));
+            if (items.stream().anyMatch(i -> "bad".equals(i.getName()))) {
+                throw new IllegalStateException("Data truncation");
+            }
+            return items.size();
+        });
+        when(itemMapper.lockStocks(anyCollection())).thenAnswer(inv -> {
+            Map<Long, Integer> stocks = new HashMap<>();
+            for (Long id : (Collection<Long>) inv.getArgument(0)) {
+                if (existing.containsKey(id)) {
+                    stocks.put(id, existing.get(id));
+                }
+            }
+            return stocks;
+        });
+        when(itemMapper.upsertBatch(anyList())).thenAnswer(inv -> {
+            List<Item> items = inv.getArgument(0);
+            upserted.addAll(items);
+            return items.size();
+        });
+        service = new ItemBulkServiceImpl(itemMapper, mock(ItemCache.class), mock(ItemIdBloomFilter.class),
+                mock(StockEngine.class), new DirectTransactionTemplate());
+    }
+
+    @Test
+    void retryDoesNotReuseIdsFromRolledBackInsert() {
+        ItemImportResultVO result = importItems(
+                "{\"name\":\"a\",\"price\":1,\"stock\":1}",
+                "{\"name\":\"bad\",\"price\":1,\"stock\":1}",
+                "{\"name\":\"c\",\"price\":1,\"stock\":1}");
+
+        assertEquals(2L, result.getSuccess());
+        assertEquals(1L, result.getFailed());
+        assertEquals(2L, result.getErrors().get(0).getLine());
+        // 整批插入已回填id后回滚，逐行重试仍然按新增插入，而不是带着未提交的id覆盖写入
+        assertEquals(Arrays.asList(true, true, true, true), insertsWithoutId);
+        assertTrue(upserted.isEmpty());
+    }
+
+    @Test
+    void rowWithUnknownIdIsValidatedAsNewItem() {
+        existing.put(7L, 10);
+
+        ItemImportResultVO result = importItems(
+                "{\"id\":5,\"name\":\"x\"}",
+                "{\"id\":6,\"name\":\"y\",\"price\":1,\"stock\":2}",
+                "{\"id\":7,\"price\":3}");
+
+        assertEquals(2L, result.getSuccess());
+        assertEquals(1L, result.getFailed());
+        assertEquals(1L, result.getErrors().get(0).getLine());
+        assertTrue(result.getErrors().get(0).getMessage().contains("新增商品的名称、价格、库存不能为空"));
+        Item created = upserted.stream().filter(i -> i.getId() == 6L).findFirst().orElseThrow(IllegalStateException::new);
+        assertEquals(0, created.getSold());
+        assertEquals(1, created.getStatus());
+        // 已存在的商品只修改导入的字段
+        Item updated = upserted.stream().filter(i -> i.getId() == 7L).findFirst().orElseThrow(IllegalStateException::new);
+        assertNull(updated.getName());
+        assertNull(updated.getSold());
+    }
+
+    private ItemImportResultVO importItems(String... lines) {
+        byte[] data = String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+        return service.importItems(new ByteArrayInputStream(data), IItemBulkService.FORMAT_NDJSON);
+    }
+
+    private static class DirectTransactionTemplate extends TransactionTemplate {
+        @Override
+        public <T> T execute(TransactionCallback<T> action) throws TransactionException {
+            return action.doInTransaction(new SimpleTransactionStatus());
+        }
+    }
+}
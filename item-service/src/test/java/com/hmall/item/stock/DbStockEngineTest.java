@@ -0,0 +1,61 @@
+package com.hmall.item.stock;
+
+import com.hmall.api.dto.OrderDetailDTO;
+import com.hmall.common.exception.BizIllegalException;
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.mapper.ItemMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class DbStockEngineTest {
+
+    private ItemMapper itemMapper;
+    private ItemCache itemCache;
+    private DbStockEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        itemMapper = mock(ItemMapper.class);
+        itemCache = mock(ItemCache.class);
+        engine = new DbStockEngine(itemMapper, itemCache);
+    }
+
+    @Test
+    void deductsEachItemAndEvictsStock() {
+        when(itemMapper.updateStock(any())).thenReturn(1);
+
+        engine.deduct(Arrays.asList(detail(1L, 2), detail(2L, 1)));
+
+        verify(itemMapper, times(2)).updateStock(any());
+        verify(itemCache).evictStockAfterCommit(Arrays.asList(1L, 2L));
+    }
+
+    @Test
+    void negativeNumIsRejectedBeforeTouchingStock() {
+        assertThrows(BizIllegalException.class, () -> engine.deduct(Collections.singletonList(detail(1L, -5))));
+        assertThrows(BizIllegalException.class, () -> engine.deduct(Collections.singletonList(detail(1L, 0))));
+        assertThrows(BizIllegalException.class, () -> engine.deduct(Collections.singletonList(detail(1L, null))));
+
+        verify(itemMapper, never()).updateStock(any());
+        verifyNoInteractions(itemCache);
+    }
+
+    @Test
+    void notEnoughStockIsRejected() {
+        when(itemMapper.updateStock(any())).thenReturn(0);
+
+        assertThrows(BizIllegalException.class, () -> engine.deduct(Collections.singletonList(detail(1L, 1))));
+        verifyNoInteractions(itemCache);
+    }
+
+    private static OrderDetailDTO detail(Long itemId, Integer num) {
+        return new OrderDetailDTO().setItemId(itemId).setNum(num);
+    }
+}
@@ -0,0 +1,129 @@
+package com.hmall.item.stock;
+
+import com.hmall.api.dto.OrderDetailDTO;
+import com.hmall.common.exception.BizIllegalException;
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.config.StockProperties;
+import com.hmall.item.domain.po.Item;
+import com.hmall.item.mapper.ItemMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GroupCommitStockEngineTest {
+
+    private final Map<Long, Integer> stocks = new ConcurrentHashMap<>();
+    private final List<Long> updatedIds = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * 加锁读库存时的耗时，模拟慢事务
+     */
+    private volatile long lockDelayMillis;
+
+    private GroupCommitStockEngine engine;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ItemMapper itemMapper = mock(ItemMapper.class);
+        when(itemMapper.selectStockForUpdate(anyCollection())).thenAnswer(inv -> {
+            Thread.sleep(lockDelayMillis);
+            List<Item> items = new ArrayList<>();
+            for (Long id : (Collection<Long>) inv.getArgument(0)) {
+                Integer stock = stocks.get(id);
+                if (stock != null) {
+                    items.add(new Item().setId(id).setStock(stock));
+                }
+            }
+            return items;
+        });
+        when(itemMapper.updateStock(any())).thenAnswer(inv -> {
+            OrderDetailDTO detail = inv.getArgument(0);
+            updatedIds.add(detail.getItemId());
+            stocks.merge(detail.getItemId(), -detail.getNum(), Integer::sum);
+            return 1;
+        });
+        StockProperties properties = new StockProperties();
+        properties.setGroupCommitTimeout(Duration.ofMillis(100));
+        properties.setGroupCommitWindowMillis(0L);
+        properties.setGroupCommitMaxBatch(1);
+        engine = new GroupCommitStockEngine(itemMapper, mock(ItemCache.class), properties, new DirectTransactionTemplate());
+        engine.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.destroy();
+    }
+
+    @Test
+    void deductsStock() {
+        stocks.put(1L, 10);
+
+        engine.deduct(Collections.singletonList(detail(1L, 3)));
+
+        assertEquals(7, stocks.get(1L));
+    }
+
+    @Test
+    void rejectsWhenStockIsNotEnough() {
+        stocks.put(1L, 2);
+
+        assertThrows(BizIllegalException.class, () -> engine.deduct(Collections.singletonList(detail(1L, 3))));
+        assertEquals(2, stocks.get(1L));
+    }
+
+    @Test
+    void callerWaitsPastTimeoutOnceRequestIsClaimed() {
+        stocks.put(1L, 10);
+        lockDelayMillis = 300;
+
+        // 事务执行超过调用方的等待时间，请求已被认领，调用方应拿到成功结果而不是超时
+        engine.deduct(Collections.singletonList(detail(1L, 3)));
+
+        assertEquals(7, stocks.get(1L));
+    }
+
+    @Test
+    void requestCancelledBeforeClaimIsNeverApplied() throws Exception {
+        stocks.put(1L, 10);
+        stocks.put(2L, 10);
+        lockDelayMillis = 300;
+        // 1.第一个请求占住后台线程
+        Thread first = new Thread(() -> engine.deduct(Collections.singletonList(detail(1L, 1))));
+        first.start();
+        Thread.sleep(50);
+
+        // 2.第二个请求在队列中等待超时，被取消
+        assertThrows(BizIllegalException.class, () -> engine.deduct(Collections.singletonList(detail(2L, 1))));
+        first.join();
+        Thread.sleep(100);
+
+        assertEquals(10, stocks.get(2L));
+        assertFalse(updatedIds.contains(2L));
+    }
+
+    private static OrderDetailDTO detail(Long itemId, int num) {
+        return new OrderDetailDTO().setItemId(itemId).setNum(num);
+    }
+
+    private static class DirectTransactionTemplate extends TransactionTemplate {
+        @Override
+        public <T> T execute(TransactionCallback<T> action) throws TransactionException {
+            return action.doInTransaction(new SimpleTransactionStatus());
+        }
+    }
+}
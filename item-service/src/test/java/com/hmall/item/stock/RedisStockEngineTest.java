@@ -0,0 +1,113 @@
+package com.hmall.item.stock;
+
+import com.hmall.api.dto.ItemDTO;
+import com.hmall.item.config.StockProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+
+import static com.hmall.common.utils.RedisConstants.ITEM_STOCK_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RedisStockEngineTest {
+
+    private StringRedisTemplate redisTemplate;
+    private ValueOperations<String, String> valueOps;
+    private RedisStockEngine engine;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        valueOps = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        engine = new RedisStockEngine(redisTemplate, null, null, new StockProperties(), null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void stockChangeAdjustsLoadedStockByDeltaWithoutReloading() {
+        Map<Long, Integer> deltas = new LinkedHashMap<>();
+        deltas.put(1L, 5);
+        deltas.put(2L, -3);
+
+        engine.onStockChanged(deltas);
+
+        // 变化量原子地加到redis中的库存上，不删除库存，也不去抢同步锁
+        verify(redisTemplate).execute(any(RedisScript.class), eq(Arrays.asList(ITEM_STOCK_KEY + 1, ITEM_STOCK_KEY + 2)),
+                eq("5"), eq("-3"));
+        verifyNoMoreInteractions(redisTemplate);
+    }
+
+    @Test
+    void stockChangeIsAppliedOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        engine.onStockChanged(Collections.singletonMap(1L, 10));
+
+        verifyNoInteractions(redisTemplate);
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        verify(redisTemplate).execute(any(RedisScript.class), eq(Collections.singletonList(ITEM_STOCK_KEY + 1)), eq("10"));
+    }
+
+    @Test
+    void adjustFailureDoesNotFailTheCommittedChange() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any()))
+                .thenThrow(new IllegalStateException("redis unavailable"));
+
+        assertDoesNotThrow(() -> engine.onStockChanged(Collections.singletonMap(1L, 10)));
+        verify(redisTemplate).execute(any(RedisScript.class), anyList(), any());
+        verify(redisTemplate, never()).delete(anyCollection());
+    }
+
+    @Test
+    void emptyChangeDoesNothing() {
+        engine.onStockChanged(Collections.emptyMap());
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void fillStockUsesLoadedRedisStock() {
+        when(valueOps.multiGet(Arrays.asList(ITEM_STOCK_KEY + 1, ITEM_STOCK_KEY + 2))).thenReturn(Arrays.asList("7", null));
+        ItemDTO loaded = item(1L, 10);
+        ItemDTO notLoaded = item(2L, 5);
+
+        List<ItemDTO> result = engine.fillStock(Arrays.asList(loaded, notLoaded));
+
+        // 已加载的用redis中扣过预扣的库存，未加载的就是数据库库存；传入的对象可能来自缓存，不能修改
+        assertEquals(7, result.get(0).getStock());
+        assertEquals(10, loaded.getStock());
+        assertSame(notLoaded, result.get(1));
+    }
+
+    @Test
+    void fillStockFallsBackToDbStockWhenRedisFails() {
+        when(valueOps.multiGet(anyList())).thenThrow(new IllegalStateException("redis unavailable"));
+        List<ItemDTO> items = Collections.singletonList(item(1L, 10));
+
+        assertSame(items, engine.fillStock(items));
+    }
+
+    private static ItemDTO item(Long id, int stock) {
+        ItemDTO item = new ItemDTO();
+        item.setId(id);
+        item.setStock(stock);
+        return item;
+    }
+}
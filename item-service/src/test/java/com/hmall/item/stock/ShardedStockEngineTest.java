@@ -0,0 +1,145 @@
+package com.hmall.item.stock;
+
+import com.hmall.api.dto.OrderDetailDTO;
+import com.hmall.common.exception.BizIllegalException;
+import com.hmall.item.cache.ItemCache;
+import com.hmall.item.config.StockProperties;
+import com.hmall.item.domain.po.ItemStockShard;
+import com.hmall.item.mapper.ItemMapper;
+import com.hmall.item.mapper.ItemStockShardMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShardedStockEngineTest {
+
+    /**
+     * itemId -> 各段库存
+     */
+    private final Map<Long, int[]> shards = new HashMap<>();
+    /**
+     * 按顺序记录的分段操作，如 deduct:1:0、lock:1
+     */
+    private final List<String> calls = new ArrayList<>();
+
+    private ShardedStockEngine engine;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ItemStockShardMapper shardMapper = mock(ItemStockShardMapper.class);
+        when(shardMapper.countTable()).thenReturn(1);
+        when(shardMapper.queryByItemIds(anyCollection())).thenAnswer(inv -> ((Collection<Long>) inv.getArgument(0))
+                .stream().flatMap(id -> rows(id).stream()).collect(Collectors.toList()));
+        when(shardMapper.deduct(anyLong(), anyInt(), anyInt())).thenAnswer(inv -> deduct(
+                inv.getArgument(0), inv.getArgument(1), inv.getArgument(2)));
+        when(shardMapper.lockByItemId(anyLong())).thenAnswer(inv -> {
+            calls.add("lock:" + inv.getArgument(0));
+            return rows(inv.getArgument(0));
+        });
+        when(shardMapper.updateShardStock(any())).thenAnswer(inv -> {
+            ItemStockShard shard = inv.getArgument(0);
+            shards.get(shard.getItemId())[shard.getShardNo()] = shard.getStock();
+            return 1;
+        });
+        engine = new ShardedStockEngine(mock(ItemMapper.class), shardMapper, mock(ItemCache.class), new StockProperties());
+        engine.init();
+    }
+
+    @Test
+    void deductsFromOneShardWhenItHasEnough() {
+        shards.put(1L, new int[]{10, 10, 10, 10});
+
+        engine.deduct(Collections.singletonList(detail(1L, 3)));
+
+        assertEquals(1, calls.size());
+        assertEquals(37, Arrays.stream(shards.get(1L)).sum());
+    }
+
+    @Test
+    void failedProbeGoesStraightToOrderedLock() {
+        // 只有最后一段够扣，但试探失败后不再逐段尝试
+        boolean lockedAll = false;
+        for (int i = 0; i < 20; i++) {
+            shards.put(1L, new int[]{1, 1, 1, 10});
+            calls.clear();
+            engine.deduct(Collections.singletonList(detail(1L, 2)));
+            List<String> deducts = calls.stream().filter(c -> c.startsWith("deduct")).collect(Collectors.toList());
+            assertTrue(deducts.size() == 1, "每次扣减最多试探一段：" + calls);
+            lockedAll |= calls.contains("lock:1");
+            if (calls.contains("lock:1")) {
+                assertEquals("lock:1", calls.get(1));
+            }
+        }
+        assertTrue(lockedAll);
+    }
+
+    @Test
+    void rebalancesRemainingStockAcrossShards() {
+        shards.put(1L, new int[]{1, 1, 1, 4});
+
+        // 每段都不够5个，锁住全部分段后合计扣减并均分剩余的2个
+        engine.deduct(Collections.singletonList(detail(1L, 5)));
+
+        assertArrayEquals(new int[]{1, 1, 0, 0}, shards.get(1L));
+    }
+
+    @Test
+    void rejectsWhenTotalIsNotEnough() {
+        shards.put(1L, new int[]{1, 1});
+
+        assertThrows(BizIllegalException.class, () -> engine.deduct(Collections.singletonList(detail(1L, 3))));
+    }
+
+    @Test
+    void itemsAreLockedInIdOrder() {
+        shards.put(1L, new int[]{0, 0});
+        shards.put(2L, new int[]{0, 0});
+        shards.put(3L, new int[]{0, 0});
+
+        assertThrows(BizIllegalException.class, () -> engine.deduct(Arrays.asList(detail(3L, 1), detail(1L, 1))));
+
+        assertTrue(calls.get(0).startsWith("deduct:1:"), calls.toString());
+    }
+
+    @Test
+    void deductRunsInReadCommitted() throws NoSuchMethodException {
+        // REPEATABLE READ下试探失败的UPDATE不释放行锁，会与按顺序加锁的事务死锁
+        Transactional tx = ShardedStockEngine.class.getMethod("deduct", List.class).getAnnotation(Transactional.class);
+
+        assertEquals(Isolation.READ_COMMITTED, tx.isolation());
+    }
+
+    private int deduct(Long itemId, int shardNo, int num) {
+        calls.add("deduct:" + itemId + ":" + shardNo);
+        int[] stocks = shards.get(itemId);
+        if (stocks == null || stocks[shardNo] < num) {
+            return 0;
+        }
+        stocks[shardNo] -= num;
+        return 1;
+    }
+
+    private List<ItemStockShard> rows(Long itemId) {
+        int[] stocks = shards.get(itemId);
+        List<ItemStockShard> rows = new ArrayList<>();
+        for (int i = 0; stocks != null && i < stocks.length; i++) {
+            rows.add(new ItemStockShard().setItemId(itemId).setShardNo(i).setStock(stocks[i]));
+        }
+        return rows;
+    }
+
+    private static OrderDetailDTO detail(Long itemId, int num) {
+        return new OrderDetailDTO().setItemId(itemId).setNum(num);
+    }
+
+}
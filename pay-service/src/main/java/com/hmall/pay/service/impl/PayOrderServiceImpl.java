@@ -1,11 +1,14 @@
 package com.hmall.pay.service.impl;
 
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.lang.TypeReference;
 import com.baomidou.mybatisplus.core.toolkit.IdWorker;
 import com.baomidou.mybatisplus.core.toolkit.StringUtils;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmall.api.clients.TradeClient;
 import com.hmall.api.clients.UserClient;
+import com.hmall.common.cache.CacheClient;
+import com.hmall.common.cache.CacheRegion;
+import com.hmall.common.cache.CacheSpec;
 import com.hmall.common.exception.BizIllegalException;
 import com.hmall.common.utils.BeanUtils;
 import com.hmall.common.utils.UserContext;
@@ -19,17 +22,16 @@ import com.hmall.pay.service.IPayOrderService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.amqp.AmqpException;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
-import static com.hmall.common.utils.RedisConstants.PAY_ID_KEY;
-import static com.hmall.common.utils.RedisConstants.SHORT_SIXTY_MINUTES;
+import static com.hmall.common.utils.RedisConstants.PAY_LIST_KEY;
 
 /**
  * <p>
@@ -43,11 +45,22 @@ import static com.hmall.common.utils.RedisConstants.SHORT_SIXTY_MINUTES;
 @RequiredArgsConstructor
 public class PayOrderServiceImpl extends ServiceImpl<PayOrderMapper, PayOrder> implements IPayOrderService {
 
+    public static final String PAY_LIST_CACHE_REGION = "pay-list";
+    private static final String PAY_LIST_ALL = "all";
+
     private final UserClient userClient;
     private final TradeClient orderClient;
-    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheClient cacheClient;
     private final RabbitTemplate rabbitTemplate;
 
+    private CacheRegion<String, List<PayOrderVO>> payListCache;
+
+    @PostConstruct
+    public void initCache() {
+        payListCache = cacheClient.region(PAY_LIST_CACHE_REGION, PAY_LIST_KEY, new TypeReference<List<PayOrderVO>>() {}.getType(),
+                new CacheSpec().setTtl(Duration.ofMinutes(60)));
+    }
+
     @Override
     public String applyPayOrder(PayApplyDTO applyDTO) {
         // 1.幂等性校验
@@ -85,32 +98,12 @@ public class PayOrderServiceImpl extends ServiceImpl<PayOrderMapper, PayOrder> i
 
     @Override
     public List<PayOrderVO> queryList() {
-        String key = PAY_ID_KEY;
-        //查缓存
-        List<String> payOrderLists = stringRedisTemplate.opsForList().range(key, 0, -1);
-        //不为空则返回
-        ArrayList<PayOrderVO> payOrderVOS = new ArrayList<>();
-        if (payOrderLists.size()!=0) {
-            //转为PayOrderVO并返回
-            for(String payOrderList:payOrderLists){
-                payOrderVOS.add(JSONUtil.toBean(payOrderList,PayOrderVO.class));
-            }
-            return payOrderVOS;
-        }
-        //查数据库
-        List<PayOrder> lists = list();
-        for(PayOrder list:lists){
-            PayOrderVO payOrderVO = BeanUtils.copyBean(list, PayOrderVO.class);
-            payOrderVOS.add(payOrderVO);
-            //转为json存入redis
-            stringRedisTemplate.opsForList().leftPush(key, JSONUtil.toJsonStr(payOrderVO));
-        }
-        //设置redis有效期
-        stringRedisTemplate.expire(key,SHORT_SIXTY_MINUTES, TimeUnit.MINUTES);
-        return payOrderVOS;
+        //查缓存，无则读数据库并写入redis
+        return payListCache.get(PAY_LIST_ALL, () -> BeanUtils.copyList(list(), PayOrderVO.class));
     }
 
     public boolean markPayOrderSuccess(Long id, LocalDateTime successTime) {
+        payListCache.evictAfterCommit(Collections.singletonList(PAY_LIST_ALL));
         return lambdaUpdate()
                 .set(PayOrder::getStatus, PayStatus.TRADE_SUCCESS.getValue())
                 .set(PayOrder::getPaySuccessTime, successTime)
@@ -130,6 +123,7 @@ public class PayOrderServiceImpl extends ServiceImpl<PayOrderMapper, PayOrder> i
             PayOrder payOrder = buildPayOrder(applyDTO);
             payOrder.setPayOrderNo(IdWorker.getId());
             save(payOrder);
+            payListCache.evict(PAY_LIST_ALL);
             return payOrder;
         }
         // 3.旧单已经存在，判断是否支付成功
@@ -149,6 +143,7 @@ public class PayOrderServiceImpl extends ServiceImpl<PayOrderMapper, PayOrder> i
             payOrder.setId(oldOrder.getId());
             payOrder.setQrCodeUrl("");
             updateById(payOrder);
+            payListCache.evict(PAY_LIST_ALL);
             payOrder.setPayOrderNo(oldOrder.getPayOrderNo());
             return payOrder;
         }
@@ -1,13 +1,12 @@
 package com.hmall.trade.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONConfig;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmall.api.clients.CartClient;
 import com.hmall.api.clients.ItemClient;
 import com.hmall.api.dto.ItemDTO;
 import com.hmall.api.dto.OrderDetailDTO;
+import com.hmall.common.cache.CacheClient;
+import com.hmall.common.cache.CacheRegion;
 import com.hmall.common.exception.BadRequestException;
 import com.hmall.common.utils.BeanUtils;
 import com.hmall.common.utils.UserContext;
@@ -20,9 +19,9 @@ import com.hmall.trade.service.IOrderDetailService;
 import com.hmall.trade.service.IOrderService;
 import io.seata.spring.annotation.GlobalTransactional;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -44,10 +43,19 @@ import static com.hmall.common.utils.RedisConstants.ORDER_ID_KEY;
 @RequiredArgsConstructor
 public class OrderServiceImpl extends ServiceImpl<OrderMapper, Order> implements IOrderService {
 
+    public static final String ORDER_CACHE_REGION = "order";
+
     private final ItemClient itemClient;
     private final IOrderDetailService detailService;
     private final CartClient cartClient;
-    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheClient cacheClient;
+
+    private CacheRegion<Long, OrderVO> orderCache;
+
+    @PostConstruct
+    public void initCache() {
+        orderCache = cacheClient.region(ORDER_CACHE_REGION, ORDER_ID_KEY, OrderVO.class);
+    }
 
     @Override
     @GlobalTransactional
@@ -78,11 +86,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, Order> implements
         // 1.6.将Order写入数据库order表中
         save(order);
         // 1.7.将订单保存到redis
-        String key = ORDER_ID_KEY + order.getId();
-        Order cacheOrder = getById(order.getId());
-        //JSONUtil.toJsonStr在转JSON时要自己先设置好日期的格式，否则后面从redis查的时候，日期会和保存的不同
-        JSONConfig config = JSONConfig.create().setDateFormat("yyyy-MM-dd HH:mm:ss");
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(cacheOrder,config));
+        orderCache.put(order.getId(), BeanUtils.copyBean(getById(order.getId()), OrderVO.class));
         // 2.保存订单详情
         List<OrderDetail> details = buildDetails(order.getId(), items, itemNumMap);
         detailService.saveBatch(details);
@@ -121,26 +125,13 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, Order> implements
                 .eq(Order::getId,orderId)
                 .eq(Order::getStatus,1)
                 .update();
+        orderCache.evict(orderId);
     }
 
     @Override
     public OrderVO queryById(Long orderId) {
-        String key = ORDER_ID_KEY + orderId;
-        //查缓存，无则读数据库
-        String orderJson = null;
-        orderJson = stringRedisTemplate.opsForValue().get(key);
-        //存在，返回数据
-        if (StrUtil.isNotBlank(orderJson)) {
-            //命中，转为java对象并返回
-            return JSONUtil.toBean(orderJson,OrderVO.class);
-
-        }
-        //不存在，查数据库
-        Order order = getById(orderId);
-        //写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(order));
-        //返回数据
-        return BeanUtils.copyBean(order,OrderVO.class);
+        //查缓存，无则读数据库并写入redis
+        return orderCache.get(orderId, () -> BeanUtils.copyBean(getById(orderId), OrderVO.class));
     }
 
     private List<OrderDetail> buildDetails(Long orderId, List<ItemDTO> items, Map<Long, Integer> numMap) {